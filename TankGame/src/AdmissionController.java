@@ -0,0 +1,186 @@
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Decides which new connections the server takes on, so a burst of
+ * joins (or a client reconnecting in a loop) can't flood it with threads
+ * and half-open logins while a match is running.
+ *
+ * A connection is refused at accept, before any thread is started, if
+ * its address has used up its token bucket or too many handshakes are
+ * already waiting for their login. An admitted connection has until the
+ * handshake timeout to log in. Logged-in players (including ones inside
+ * their reconnect grace period) hold a seat; with every seat taken new
+ * logins get "server full".
+ */
+public class AdmissionController {
+
+    public static final String SERVER_BUSY = "Server busy, try again shortly";
+    public static final String TOO_MANY_JOINS = "Too many connections from your address";
+    public static final String SERVER_FULL = "Server full";
+
+    // Buckets are dropped once they have refilled; only look that often
+    private static final int BUCKET_PRUNE_SIZE = 1024;
+
+    private final int maxHandshakes;
+    private final long handshakeTimeoutMillis;
+    private final double joinsPerSecond;
+    private final double joinBurst;
+    private final int maxPlayers;
+
+    // Player id -> when its login must be done by
+    private final Map<Integer, Long> handshakes = new ConcurrentHashMap<>();
+    // Only touched by the accept loop
+    private final Map<InetAddress, Bucket> buckets = new HashMap<>();
+    private final AtomicInteger seats = new AtomicInteger();
+    // Set by the overload governor at its last level
+    private volatile boolean refusingJoins = false;
+
+    private final AtomicInteger refusedBusy = new AtomicInteger();
+    private final AtomicInteger refusedRate = new AtomicInteger();
+    private final AtomicInteger refusedFull = new AtomicInteger();
+
+    public AdmissionController(int maxHandshakes, long handshakeTimeoutMillis,
+                               double joinsPerSecond, int joinBurst, int maxPlayers) {
+        this.maxHandshakes = maxHandshakes;
+        this.handshakeTimeoutMillis = handshakeTimeoutMillis;
+        this.joinsPerSecond = joinsPerSecond;
+        this.joinBurst = joinBurst;
+        this.maxPlayers = maxPlayers;
+    }
+
+    /**
+     * Accept loop: null if a connection from 'address' may start its
+     * handshake, else why not.
+     */
+    public String admit(InetAddress address, long nowNanos) {
+        if (refusingJoins || handshakes.size() >= maxHandshakes) {
+            refusedBusy.incrementAndGet();
+            return SERVER_BUSY;
+        }
+        if (buckets.size() > BUCKET_PRUNE_SIZE) pruneBuckets(nowNanos);
+        Bucket bucket = buckets.get(address);
+        if (bucket == null) {
+            bucket = new Bucket(joinBurst, nowNanos);
+            buckets.put(address, bucket);
+        }
+        if (!bucket.take(nowNanos)) {
+            refusedRate.incrementAndGet();
+            return TOO_MANY_JOINS;
+        }
+        return null;
+    }
+
+    /**
+     * Refuse every new connection as busy, e.g. while the server is
+     * overloaded.
+     */
+    public void setRefusingJoins(boolean refusingJoins) {
+        this.refusingJoins = refusingJoins;
+    }
+
+    public void startHandshake(int playerId) {
+        handshakes.put(playerId, System.currentTimeMillis() + handshakeTimeoutMillis);
+    }
+
+    /**
+     * The login went through or the connection closed; safe to call
+     * more than once.
+     */
+    public void finishHandshake(int playerId) {
+        handshakes.remove(playerId);
+    }
+
+    /**
+     * Handshakes past their deadline; they are finished by this call,
+     * the caller closes their connections.
+     */
+    public List<Integer> expireHandshakes() {
+        List<Integer> expired = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        for (Iterator<Map.Entry<Integer, Long>> it = handshakes.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<Integer, Long> e = it.next();
+            if (e.getValue() <= now) {
+                it.remove();
+                expired.add(e.getKey());
+            }
+        }
+        return expired;
+    }
+
+    /**
+     * Take a seat for a player about to log in; false if the arena is full.
+     */
+    public boolean takeSeat() {
+        while (true) {
+            int taken = seats.get();
+            if (taken >= maxPlayers) {
+                refusedFull.incrementAndGet();
+                return false;
+            }
+            if (seats.compareAndSet(taken, taken + 1)) return true;
+        }
+    }
+
+    public void releaseSeat() {
+        seats.decrementAndGet();
+    }
+
+    public int getSeatsTaken() {
+        return seats.get();
+    }
+
+    /**
+     * What was refused since the last call, for the log; null if nothing.
+     */
+    public String drainRefusals() {
+        int busy = refusedBusy.getAndSet(0);
+        int rate = refusedRate.getAndSet(0);
+        int full = refusedFull.getAndSet(0);
+        if (busy + rate + full == 0) return null;
+        return "Refused " + busy + " (busy), " + rate + " (join rate), "
+                + full + " (arena full); " + handshakes.size() + " logging in, "
+                + seats.get() + "/" + maxPlayers + " seats taken";
+    }
+
+    private void pruneBuckets(long nowNanos) {
+        buckets.values().removeIf(b -> b.isFull(nowNanos));
+    }
+
+    /**
+     * Join tokens of one address: refilled at joinsPerSecond, up to
+     * joinBurst.
+     */
+    private final class Bucket {
+        private double tokens;
+        private long lastNanos;
+
+        Bucket(double tokens, long nowNanos) {
+            this.tokens = tokens;
+            this.lastNanos = nowNanos;
+        }
+
+        boolean take(long nowNanos) {
+            refill(nowNanos);
+            if (tokens < 1) return false;
+            tokens -= 1;
+            return true;
+        }
+
+        boolean isFull(long nowNanos) {
+            refill(nowNanos);
+            return tokens >= joinBurst;
+        }
+
+        private void refill(long nowNanos) {
+            tokens = Math.min(joinBurst, tokens + (nowNanos - lastNanos) / 1e9 * joinsPerSecond);
+            lastNanos = nowNanos;
+        }
+    }
+}
@@ -0,0 +1,288 @@
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Arena size and its static walls, loaded from a text file:
+ *
+ *   # comment
+ *   size 1920 1080
+ *   wall 400 300 40 480      (x y width height)
+ *
+ * The walls are put into a bounding volume hierarchy once, at load, so
+ * a collision query costs about log(walls) box tests. The tree lives
+ * in flat arrays: node i covers [minX, maxX) x [minY, maxY); an inner
+ * node's children are 'left' and 'left + 1', a leaf (left == -1) holds
+ * walls order[first .. first + count).
+ */
+public class ArenaMap {
+
+    public static final int DEFAULT_WIDTH = 1920;
+    public static final int DEFAULT_HEIGHT = 1080;
+
+    // Most of the world a client shows at once; bigger maps scroll
+    public static final int VIEW_WIDTH = 1920;
+    public static final int VIEW_HEIGHT = 1080;
+
+    private static final int LEAF_SIZE = 2;
+
+    public final int width, height;
+
+    // Walls, x y w h packed four ints each
+    private final int[] walls;
+
+    // BVH nodes
+    private int[] minX, minY, maxX, maxY, left, first, count;
+    private int nodeCount;
+    private int[] order;
+    public static final int STACK_SIZE = 64;
+    private final int[] stack = new int[STACK_SIZE];
+
+    public ArenaMap(int width, int height, int[] walls) {
+        this.width = width;
+        this.height = height;
+        this.walls = walls;
+        build();
+    }
+
+    /**
+     * An open arena of the default size.
+     */
+    public static ArenaMap empty() {
+        return empty(DEFAULT_WIDTH, DEFAULT_HEIGHT);
+    }
+
+    public static ArenaMap empty(int width, int height) {
+        return new ArenaMap(width, height, new int[0]);
+    }
+
+    public static ArenaMap load(String path) throws IOException {
+        int width = DEFAULT_WIDTH, height = DEFAULT_HEIGHT;
+        List<int[]> walls = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new FileReader(path))) {
+            String line;
+            int lineNo = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNo++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) continue;
+                String[] parts = line.split("\\s+");
+                try {
+                    if (parts[0].equals("size") && parts.length == 3) {
+                        width = Integer.parseInt(parts[1]);
+                        height = Integer.parseInt(parts[2]);
+                    } else if (parts[0].equals("wall") && parts.length == 5) {
+                        int[] w = new int[4];
+                        for (int i = 0; i < 4; i++) w[i] = Integer.parseInt(parts[i + 1]);
+                        if (w[2] <= 0 || w[3] <= 0) throw new IOException(path + ":" + lineNo + ": empty wall");
+                        walls.add(w);
+                    } else {
+                        throw new IOException(path + ":" + lineNo + ": can't parse '" + line + "'");
+                    }
+                } catch (NumberFormatException e) {
+                    throw new IOException(path + ":" + lineNo + ": bad number in '" + line + "'");
+                }
+            }
+        }
+        int[] packed = new int[walls.size() * 4];
+        for (int i = 0; i < walls.size(); i++) {
+            System.arraycopy(walls.get(i), 0, packed, i * 4, 4);
+        }
+        return new ArenaMap(width, height, packed);
+    }
+
+    public int getWallCount() {
+        return walls.length / 4;
+    }
+
+    /**
+     * Walls as x y w h, four ints each. Don't modify.
+     */
+    public int[] getWalls() {
+        return walls;
+    }
+
+    /**
+     * What the client needs to draw the arena; sent once after login.
+     */
+    public MapData toMapData() {
+        MapData data = new MapData();
+        data.width = width;
+        data.height = height;
+        data.walls = walls.clone();
+        return data;
+    }
+
+    // --- Building ---------------------------------------------------------
+
+    private void build() {
+        int n = getWallCount();
+        order = new int[n];
+        for (int i = 0; i < n; i++) order[i] = i;
+        int capacity = Math.max(1, 2 * n);
+        minX = new int[capacity];
+        minY = new int[capacity];
+        maxX = new int[capacity];
+        maxY = new int[capacity];
+        left = new int[capacity];
+        first = new int[capacity];
+        count = new int[capacity];
+        nodeCount = 1;
+        if (n > 0) split(0, 0, n);
+    }
+
+    private void split(int node, int from, int to) {
+        int lx = Integer.MAX_VALUE, ly = Integer.MAX_VALUE, hx = Integer.MIN_VALUE, hy = Integer.MIN_VALUE;
+        for (int i = from; i < to; i++) {
+            int w = order[i] * 4;
+            lx = Math.min(lx, walls[w]);
+            ly = Math.min(ly, walls[w + 1]);
+            hx = Math.max(hx, walls[w] + walls[w + 2]);
+            hy = Math.max(hy, walls[w + 1] + walls[w + 3]);
+        }
+        minX[node] = lx;
+        minY[node] = ly;
+        maxX[node] = hx;
+        maxY[node] = hy;
+
+        if (to - from <= LEAF_SIZE) {
+            left[node] = -1;
+            first[node] = from;
+            count[node] = to - from;
+            return;
+        }
+
+        // Median split of wall centers along the longer side
+        boolean alongX = hx - lx >= hy - ly;
+        sortByCenter(from, to, alongX);
+        int mid = (from + to) >>> 1;
+        int child = nodeCount;
+        nodeCount += 2;
+        left[node] = child;
+        split(child, from, mid);
+        split(child + 1, mid, to);
+    }
+
+    private void sortByCenter(int from, int to, boolean alongX) {
+        // Insertion sort; maps have tens to hundreds of walls and this runs once
+        int axis = alongX ? 0 : 1;
+        for (int i = from + 1; i < to; i++) {
+            int wall = order[i];
+            int key = 2 * walls[wall * 4 + axis] + walls[wall * 4 + axis + 2];
+            int j = i - 1;
+            while (j >= from && 2 * walls[order[j] * 4 + axis] + walls[order[j] * 4 + axis + 2] > key) {
+                order[j + 1] = order[j];
+                j--;
+            }
+            order[j + 1] = wall;
+        }
+    }
+
+    // --- Queries -------------------------------------------------------------
+    // The short forms share 'stack' and are for the game thread only;
+    // other threads pass their own stack of STACK_SIZE ints.
+
+    /**
+     * Does the rectangle overlap any wall?
+     */
+    public boolean overlaps(int x, int y, int w, int h) {
+        return firstOverlap(x, y, w, h) >= 0;
+    }
+
+    /**
+     * Index of a wall the rectangle overlaps, or -1.
+     */
+    public int firstOverlap(int x, int y, int w, int h) {
+        return firstOverlap(x, y, w, h, stack);
+    }
+
+    public int firstOverlap(int x, int y, int w, int h, int[] stack) {
+        if (walls.length == 0) return -1;
+        int top = 0;
+        stack[top++] = 0;
+        while (top > 0) {
+            int node = stack[--top];
+            if (x >= maxX[node] || x + w <= minX[node] || y >= maxY[node] || y + h <= minY[node]) continue;
+            if (left[node] < 0) {
+                for (int i = first[node]; i < first[node] + count[node]; i++) {
+                    int wall = order[i];
+                    int k = wall * 4;
+                    if (x < walls[k] + walls[k + 2] && x + w > walls[k]
+                            && y < walls[k + 1] + walls[k + 3] && y + h > walls[k + 1]) {
+                        return wall;
+                    }
+                }
+            } else {
+                stack[top++] = left[node];
+                stack[top++] = left[node] + 1;
+            }
+        }
+        return -1;
+    }
+
+    public int wallX(int wall) { return walls[wall * 4]; }
+    public int wallY(int wall) { return walls[wall * 4 + 1]; }
+    public int wallWidth(int wall) { return walls[wall * 4 + 2]; }
+    public int wallHeight(int wall) { return walls[wall * 4 + 3]; }
+
+    /**
+     * Earliest t in [0, 1] at which a circle of 'radius' moving from
+     * (x, y) by (dx, dy) touches a wall, or -1. Walls are grown by the
+     * radius and the center is traced through them as a ray (slab test),
+     * which treats the wall corners as square.
+     */
+    public double sweepCircle(double x, double y, double dx, double dy, int radius) {
+        return sweepCircle(x, y, dx, dy, radius, stack);
+    }
+
+    public double sweepCircle(double x, double y, double dx, double dy, int radius, int[] stack) {
+        if (walls.length == 0) return -1;
+        double best = 2;
+        int top = 0;
+        stack[top++] = 0;
+        while (top > 0) {
+            int node = stack[--top];
+            double t = rayBox(x, y, dx, dy, minX[node] - radius, minY[node] - radius,
+                    maxX[node] + radius, maxY[node] + radius);
+            if (t < 0 || t >= best) continue;
+            if (left[node] < 0) {
+                for (int i = first[node]; i < first[node] + count[node]; i++) {
+                    int k = order[i] * 4;
+                    double hit = rayBox(x, y, dx, dy, walls[k] - radius, walls[k + 1] - radius,
+                            walls[k] + walls[k + 2] + radius, walls[k + 1] + walls[k + 3] + radius);
+                    if (hit >= 0 && hit < best) best = hit;
+                }
+            } else {
+                stack[top++] = left[node];
+                stack[top++] = left[node] + 1;
+            }
+        }
+        return best <= 1 ? best : -1;
+    }
+
+    /**
+     * Entry time in [0, 1] of the segment (x, y) + t(dx, dy) into the
+     * open box, 0 if it starts inside, or -1 if it misses.
+     */
+    private static double rayBox(double x, double y, double dx, double dy,
+                                 double lx, double ly, double hx, double hy) {
+        double tMin = 0, tMax = 1;
+        if (dx == 0) {
+            if (x <= lx || x >= hx) return -1;
+        } else {
+            double t1 = (lx - x) / dx, t2 = (hx - x) / dx;
+            tMin = Math.max(tMin, Math.min(t1, t2));
+            tMax = Math.min(tMax, Math.max(t1, t2));
+        }
+        if (dy == 0) {
+            if (y <= ly || y >= hy) return -1;
+        } else {
+            double t1 = (ly - y) / dy, t2 = (hy - y) / dy;
+            tMin = Math.max(tMin, Math.min(t1, t2));
+            tMax = Math.min(tMax, Math.max(t1, t2));
+        }
+        return tMin < tMax ? tMin : -1;
+    }
+}
@@ -0,0 +1,64 @@
+import java.awt.Color;
+
+/**
+ * Data table for buffs: which stat each buff type scales, by how much,
+ * for how long, and the color it's drawn in. Adding a buff type means
+ * adding a row here (and a constant to GameState.BuffData.buffType).
+ */
+public final class BuffTable {
+
+    private BuffTable() {}
+
+    /**
+     * Player stats a buff can scale.
+     */
+    public enum Stat {SIZE, BULLET_SIZE, DAMAGE, SPEED, RELOAD_SPEED}
+
+    public static final class Entry {
+        public final Stat stat;
+        public final double factor;
+        public final int durationMs;
+        public final Color color;
+        // As sent to clients in GameState.BuffData.color
+        public final String colorHex;
+
+        Entry(Stat stat, double factor, int durationMs, Color color) {
+            this.stat = stat;
+            this.factor = factor;
+            this.durationMs = durationMs;
+            this.color = color;
+            this.colorHex = String.format("#%02X%02X%02X", color.getRed(), color.getGreen(), color.getBlue());
+        }
+    }
+
+    // Indexed by buffType ordinal
+    private static final Entry[] ENTRIES = new Entry[GameState.BuffData.buffType.values().length];
+
+    static {
+        put(GameState.BuffData.buffType.sizeDecrease,
+                Stat.SIZE, 0.5, 10000, new Color(174, 195, 183));
+        put(GameState.BuffData.buffType.bulletIncrease,
+                Stat.BULLET_SIZE, 2, 10000, new Color(139, 48, 48));
+        put(GameState.BuffData.buffType.damageIncrease,
+                Stat.DAMAGE, 1.5, 10000, new Color(224, 108, 117));
+        put(GameState.BuffData.buffType.speedIncrease,
+                Stat.SPEED, 1.25, 15000, new Color(106, 192, 153));
+        put(GameState.BuffData.buffType.reloadSpeedIncrease,
+                Stat.RELOAD_SPEED, 2, 20000, new Color(95, 158, 160));
+
+        for (GameState.BuffData.buffType type : GameState.BuffData.buffType.values()) {
+            if (ENTRIES[type.ordinal()] == null) {
+                throw new IllegalStateException("No BuffTable entry for " + type);
+            }
+        }
+    }
+
+    private static void put(GameState.BuffData.buffType type, Stat stat, double factor,
+                            int durationMs, Color color) {
+        ENTRIES[type.ordinal()] = new Entry(stat, factor, durationMs, color);
+    }
+
+    public static Entry get(GameState.BuffData.buffType type) {
+        return ENTRIES[type.ordinal()];
+    }
+}
@@ -0,0 +1,178 @@
+import java.util.Arrays;
+
+/**
+ * All bullets as parallel primitive arrays (one per field) instead of
+ * one object each. The per-tick passes that touch every bullet the same
+ * way (advance, bounds, leaving the map) are plain counted loops over
+ * these arrays, which HotSpot's C2 compiles to SIMD instructions; the
+ * rest of the bullet code reads the same arrays with good locality.
+ *
+ * Bullets keep the id they were fired with as a stable handle; their
+ * index changes when another bullet is removed (swap with the last).
+ */
+public final class BulletStore {
+
+    // Bullets move in 1/256 px, so a per-tick step keeps its fraction
+    // whatever the tick rate
+    public static final int SUBPIXEL_BITS = 8;
+
+    // Position is the top-left of the bullet's box, as sent to clients
+    public int[] x, y;
+    public int[] prevX, prevY;
+    // The same position in sub-pixels; x and y are these, rounded down
+    public int[] subX, subY;
+    // Per-tick step in sub-pixels, fixed when fired
+    public int[] vx, vy;
+    public int[] diameter;
+    public int[] owner;
+    // Radius this tick (it follows the shooter's bullet size buff)
+    public int[] radius;
+    // Swept box of this tick's motion, grown by a margin (see sweptBounds)
+    public int[] minX, minY, maxX, maxY;
+    // Set during the tick: hit a tank, hit a wall
+    public boolean[] spent, blocked;
+
+    private int[] ids;
+    private final IntIndexMap index;
+    private int size;
+
+    public BulletStore(int expected) {
+        int capacity = Math.max(16, expected);
+        allocate(capacity);
+        index = new IntIndexMap(capacity);
+    }
+
+    private void allocate(int capacity) {
+        x = grow(x, capacity);
+        y = grow(y, capacity);
+        prevX = grow(prevX, capacity);
+        prevY = grow(prevY, capacity);
+        subX = grow(subX, capacity);
+        subY = grow(subY, capacity);
+        vx = grow(vx, capacity);
+        vy = grow(vy, capacity);
+        diameter = grow(diameter, capacity);
+        owner = grow(owner, capacity);
+        radius = grow(radius, capacity);
+        minX = grow(minX, capacity);
+        minY = grow(minY, capacity);
+        maxX = grow(maxX, capacity);
+        maxY = grow(maxY, capacity);
+        ids = grow(ids, capacity);
+        spent = spent == null ? new boolean[capacity] : Arrays.copyOf(spent, capacity);
+        blocked = blocked == null ? new boolean[capacity] : Arrays.copyOf(blocked, capacity);
+    }
+
+    private static int[] grow(int[] a, int capacity) {
+        return a == null ? new int[capacity] : Arrays.copyOf(a, capacity);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int idAt(int i) {
+        return ids[i];
+    }
+
+    /**
+     * Index of the bullet with this id, or -1.
+     */
+    public int indexOf(int id) {
+        return index.get(id);
+    }
+
+    /**
+     * Add a bullet at (x, y) px moving (vx, vy) sub-pixels per tick.
+     */
+    public void add(int id, int x, int y, int vx, int vy, int diameter, int owner) {
+        if (size == this.x.length) allocate(size * 2);
+        int i = size++;
+        this.x[i] = x;
+        this.y[i] = y;
+        this.prevX[i] = x;
+        this.prevY[i] = y;
+        this.subX[i] = x << SUBPIXEL_BITS;
+        this.subY[i] = y << SUBPIXEL_BITS;
+        this.vx[i] = vx;
+        this.vy[i] = vy;
+        this.diameter[i] = diameter;
+        this.owner[i] = owner;
+        this.spent[i] = false;
+        this.blocked[i] = false;
+        ids[i] = id;
+        index.put(id, i);
+    }
+
+    public void removeAt(int i) {
+        index.remove(ids[i]);
+        int last = --size;
+        if (i != last) {
+            x[i] = x[last];
+            y[i] = y[last];
+            prevX[i] = prevX[last];
+            prevY[i] = prevY[last];
+            subX[i] = subX[last];
+            subY[i] = subY[last];
+            vx[i] = vx[last];
+            vy[i] = vy[last];
+            diameter[i] = diameter[last];
+            owner[i] = owner[last];
+            radius[i] = radius[last];
+            minX[i] = minX[last];
+            minY[i] = minY[last];
+            maxX[i] = maxX[last];
+            maxY[i] = maxY[last];
+            spent[i] = spent[last];
+            blocked[i] = blocked[last];
+            ids[i] = ids[last];
+            index.put(ids[i], i);
+        }
+    }
+
+    // --- Batch kernels ----------------------------------------------------
+    // Keep these as simple counted loops over whole arrays: no calls, no
+    // object loads, no early exits, so they stay vectorizable.
+
+    /**
+     * Move every bullet one step, remembering where it came from.
+     */
+    public void advance() {
+        int n = size;
+        int[] x = this.x, y = this.y, px = prevX, py = prevY, sx = subX, sy = subY, dx = vx, dy = vy;
+        for (int i = 0; i < n; i++) {
+            px[i] = x[i];
+            py[i] = y[i];
+            sx[i] += dx[i];
+            sy[i] += dy[i];
+            x[i] = sx[i] >> SUBPIXEL_BITS;
+            y[i] = sy[i] >> SUBPIXEL_BITS;
+        }
+    }
+
+    /**
+     * Box around each bullet circle's path this tick, grown by 'margin'
+     * on every side. Needs radius[] filled in.
+     */
+    public void sweptBounds(int margin) {
+        int n = size;
+        for (int i = 0; i < n; i++) {
+            int r = radius[i];
+            minX[i] = Math.min(prevX[i], x[i]) + r - margin;
+            minY[i] = Math.min(prevY[i], y[i]) + r - margin;
+            maxX[i] = Math.max(prevX[i], x[i]) + r + margin;
+            maxY[i] = Math.max(prevY[i], y[i]) + r + margin;
+        }
+    }
+
+    /**
+     * Flag bullets that left the [0, width] x [0, height] arena.
+     */
+    public void markOutside(int width, int height) {
+        int n = size;
+        for (int i = 0; i < n; i++) {
+            int px = x[i], py = y[i];
+            blocked[i] |= px < 0 | px > width | py < 0 | py > height;
+        }
+    }
+}
@@ -0,0 +1,180 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * A match's state between two ticks, enough to resume it in another
+ * process with GameLogic.restore(). GameLogic.checkpoint() makes it as a
+ * plain copy on the game thread; encoding and writing it happen on
+ * another thread (see GameServer).
+ *
+ * Bullets in flight are left out, they live under a second. Players
+ * come back when someone logs in with their username; until then their
+ * tank isn't in the arena.
+ *
+ * Layout: MAGIC, VERSION, seed, RNG state, tick, tick rate, the map
+ * (size and walls), the buffs, then the players.
+ */
+public class Checkpoint {
+
+    public static final int MAGIC = 0x544B4350; // "TKCP"
+    public static final int VERSION = 1;
+
+    public long seed;
+    public long rngState;
+    public long tick;
+    public int tickRate;
+    public int width, height;
+    public int[] walls;
+    public BuffState[] buffs;
+    public PlayerState[] players;
+
+    public static final class BuffState {
+        public int x, y, diameter;
+        public boolean visible;
+        public int type;            // GameState.BuffData.buffType ordinal
+        public long respawnTick;
+    }
+
+    public static final class PlayerState {
+        public String username;
+        public int score;
+        public int x, y;
+        public double turretAngle;
+        public int health;
+        public long lastShotTime;
+        public boolean dead;
+        public long respawnTick;
+        // Active buff modifiers
+        public int[] modifierStat;  // BuffTable.Stat ordinals
+        public double[] modifierFactor;
+        public long[] modifierExpiry;
+    }
+
+    /**
+     * Write to 'path' through a temporary file, so a crash mid-write
+     * leaves the previous checkpoint intact.
+     */
+    public void write(String path) throws IOException {
+        File target = new File(path);
+        File temp = new File(path + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(temp), 1 << 16))) {
+            writeTo(out);
+        }
+        Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public static Checkpoint read(String path) throws IOException {
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(path), 1 << 16))) {
+            return readFrom(in);
+        }
+    }
+
+    public void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeShort(VERSION);
+        out.writeLong(seed);
+        out.writeLong(rngState);
+        WireCodec.writeVarLong(out, tick);
+        WireCodec.writeVarInt(out, tickRate);
+        WireCodec.writeVarInt(out, width);
+        WireCodec.writeVarInt(out, height);
+        WireCodec.writeVarInt(out, walls.length);
+        for (int v : walls) WireCodec.writeSignedVarInt(out, v);
+
+        WireCodec.writeVarInt(out, buffs.length);
+        for (BuffState b : buffs) {
+            WireCodec.writeSignedVarInt(out, b.x);
+            WireCodec.writeSignedVarInt(out, b.y);
+            WireCodec.writeVarInt(out, b.diameter);
+            out.writeBoolean(b.visible);
+            out.writeByte(b.type);
+            WireCodec.writeVarLong(out, b.respawnTick);
+        }
+
+        WireCodec.writeVarInt(out, players.length);
+        for (PlayerState p : players) {
+            out.writeUTF(p.username);
+            WireCodec.writeSignedVarInt(out, p.score);
+            WireCodec.writeSignedVarInt(out, p.x);
+            WireCodec.writeSignedVarInt(out, p.y);
+            out.writeDouble(p.turretAngle);
+            WireCodec.writeSignedVarInt(out, p.health);
+            out.writeLong(p.lastShotTime);
+            out.writeBoolean(p.dead);
+            WireCodec.writeVarLong(out, p.respawnTick);
+            WireCodec.writeVarInt(out, p.modifierStat.length);
+            for (int i = 0; i < p.modifierStat.length; i++) {
+                out.writeByte(p.modifierStat[i]);
+                out.writeDouble(p.modifierFactor[i]);
+                WireCodec.writeVarLong(out, p.modifierExpiry[i]);
+            }
+        }
+    }
+
+    public static Checkpoint readFrom(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a checkpoint");
+        }
+        int version = in.readUnsignedShort();
+        if (version != VERSION) {
+            throw new IOException("Unsupported checkpoint version " + version);
+        }
+        Checkpoint cp = new Checkpoint();
+        cp.seed = in.readLong();
+        cp.rngState = in.readLong();
+        cp.tick = WireCodec.readVarLong(in);
+        cp.tickRate = WireCodec.readVarInt(in);
+        cp.width = WireCodec.readVarInt(in);
+        cp.height = WireCodec.readVarInt(in);
+        cp.walls = new int[WireCodec.readVarInt(in)];
+        for (int i = 0; i < cp.walls.length; i++) cp.walls[i] = WireCodec.readSignedVarInt(in);
+
+        cp.buffs = new BuffState[WireCodec.readVarInt(in)];
+        for (int i = 0; i < cp.buffs.length; i++) {
+            BuffState b = new BuffState();
+            b.x = WireCodec.readSignedVarInt(in);
+            b.y = WireCodec.readSignedVarInt(in);
+            b.diameter = WireCodec.readVarInt(in);
+            b.visible = in.readBoolean();
+            b.type = in.readUnsignedByte();
+            b.respawnTick = WireCodec.readVarLong(in);
+            cp.buffs[i] = b;
+        }
+
+        cp.players = new PlayerState[WireCodec.readVarInt(in)];
+        for (int i = 0; i < cp.players.length; i++) {
+            PlayerState p = new PlayerState();
+            p.username = in.readUTF();
+            p.score = WireCodec.readSignedVarInt(in);
+            p.x = WireCodec.readSignedVarInt(in);
+            p.y = WireCodec.readSignedVarInt(in);
+            p.turretAngle = in.readDouble();
+            p.health = WireCodec.readSignedVarInt(in);
+            p.lastShotTime = in.readLong();
+            p.dead = in.readBoolean();
+            p.respawnTick = WireCodec.readVarLong(in);
+            int modifiers = WireCodec.readVarInt(in);
+            p.modifierStat = new int[modifiers];
+            p.modifierFactor = new double[modifiers];
+            p.modifierExpiry = new long[modifiers];
+            for (int k = 0; k < modifiers; k++) {
+                p.modifierStat[k] = in.readUnsignedByte();
+                p.modifierFactor[k] = in.readDouble();
+                p.modifierExpiry[k] = WireCodec.readVarLong(in);
+            }
+            cp.players[i] = p;
+        }
+        return cp;
+    }
+}
@@ -0,0 +1,120 @@
+import java.util.Arrays;
+
+/**
+ * Buckets ids by position into square chunks, so "what's near here"
+ * costs the number of nearby chunks instead of the number of entities.
+ * Rebuilt every tick with clear() and add(); query() fills an internal
+ * result array read back with result(i).
+ *
+ * Not thread safe; owned by the game thread. Once built, other threads
+ * may query it at the same time, each into its own Results.
+ */
+public class ChunkGrid {
+
+    private final int chunkSize;
+    private final int cols, rows;
+
+    private final int[][] items;
+    private final int[] counts;
+    // Chunks with something in them, so clear() doesn't touch the rest
+    private final int[] used;
+    private int usedCount;
+
+    private final Results results = new Results();
+
+    /**
+     * Ids found by one query.
+     */
+    public static final class Results {
+        private int[] ids = new int[64];
+
+        public int get(int i) {
+            return ids[i];
+        }
+    }
+
+    public ChunkGrid(int width, int height, int chunkSize) {
+        this.chunkSize = chunkSize;
+        this.cols = Math.max(1, (width + chunkSize - 1) / chunkSize);
+        this.rows = Math.max(1, (height + chunkSize - 1) / chunkSize);
+        this.items = new int[cols * rows][];
+        this.counts = new int[cols * rows];
+        this.used = new int[cols * rows];
+    }
+
+    public int getCols() {
+        return cols;
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    public void clear() {
+        for (int i = 0; i < usedCount; i++) counts[used[i]] = 0;
+        usedCount = 0;
+    }
+
+    /**
+     * Column of world x, clamped to the grid.
+     */
+    public int col(int x) {
+        return Math.max(0, Math.min(cols - 1, x / chunkSize));
+    }
+
+    public int row(int y) {
+        return Math.max(0, Math.min(rows - 1, y / chunkSize));
+    }
+
+    public int chunkAt(int x, int y) {
+        return row(y) * cols + col(x);
+    }
+
+    public void add(int id, int x, int y) {
+        int chunk = chunkAt(x, y);
+        int n = counts[chunk];
+        if (n == 0) used[usedCount++] = chunk;
+        int[] list = items[chunk];
+        if (list == null) {
+            list = items[chunk] = new int[8];
+        } else if (n == list.length) {
+            list = items[chunk] = Arrays.copyOf(list, n * 2);
+        }
+        list[n] = id;
+        counts[chunk] = n + 1;
+    }
+
+    /**
+     * Collects the ids in every chunk touching the rectangle; returns
+     * how many. Entries may lie outside the rectangle itself.
+     */
+    public int query(int minX, int minY, int maxX, int maxY) {
+        return query(minX, minY, maxX, maxY, results);
+    }
+
+    /**
+     * query() into the caller's Results.
+     */
+    public int query(int minX, int minY, int maxX, int maxY, Results into) {
+        int found = 0;
+        int c0 = col(minX), c1 = col(maxX);
+        int r0 = row(minY), r1 = row(maxY);
+        for (int r = r0; r <= r1; r++) {
+            for (int c = c0; c <= c1; c++) {
+                int chunk = r * cols + c;
+                int n = counts[chunk];
+                if (n == 0) continue;
+                if (found + n > into.ids.length) {
+                    into.ids = Arrays.copyOf(into.ids, Math.max(into.ids.length * 2, found + n));
+                }
+                System.arraycopy(items[chunk], 0, into.ids, found, n);
+                found += n;
+            }
+        }
+        return found;
+    }
+
+    public int result(int i) {
+        return results.ids[i];
+    }
+}
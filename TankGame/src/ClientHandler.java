@@ -1,4 +1,10 @@
 import java.net.Socket;
+import java.net.SocketAddress;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.IOException;
@@ -6,22 +12,99 @@ import java.io.IOException;
 /**
  * Handles communication with a single client.
  * A separate thread is used to read commands from the client
- * and pass them to the server's game logic.
+ * and pass them to the server's game logic; another writes to it.
+ * Both come from a ThreadFactory (see ConnectionThreads), so they may
+ * be virtual threads: nothing here blocks while holding a monitor.
  */
-public class ClientHandler extends Thread {
-    private int playerId;
+public class ClientHandler implements Runnable {
+    private volatile int playerId;
     private Socket socket;
     private GameServer server;
 
-    private ObjectOutputStream out;
+    // Written only by the writer thread once it runs; everything else
+    // goes through the outbox
+    private volatile ObjectOutputStream out;
     private ObjectInputStream in;
-    private boolean running = true;
-    private boolean loginCompleted = false;
+
+    private final NetStats netStats = new NetStats();
+    private volatile boolean running = true;
+    private volatile boolean loginCompleted = false;
+    // A login is with the server; more are ignored until it is answered
+    private volatile boolean loginPending = false;
+    // Closing once the outbox is written; the client is not listened to
+    private volatile boolean closing = false;
+
+    // UDP channel state (see UdpServer); null address = TCP only
+    private volatile SocketAddress udpAddress;
+    private volatile long udpToken;
+    private int snapshotSeq = 0;
+    private volatile int lastInputSeq = 0;
+
+    // Snapshot compression, negotiated at login and switched on once
+    // writes to this client show its link is the bottleneck
+    private static final long SLOW_WRITE_NANOS = 1_000_000;
+    private volatile boolean compressionSupported = false;
+    private double writeNanosAvg = 0;
+    // Created by the writer thread once writes are slow; from then on
+    // the game thread compresses with it
+    private volatile SnapshotCompressor tcpCompressor;
+    private SnapshotCompressor udpCompressor;
+
+    // Everything for this client waits here for the writer thread, so a
+    // slow client never blocks the game loop. Pings, login answers and
+    // the map are always kept. When OUTBOX_LIMIT snapshots are waiting
+    // the oldest is dropped: every snapshot is a full state, the newest
+    // is all that matters.
+    // A compressed one can't be, as the client's inflater needs every
+    // frame of the stream; then the new snapshot is dropped before it
+    // reaches the deflater.
+    // Lockstep frames can't be dropped; a client this many behind gets
+    // a fresh start instead.
+    private static final int OUTBOX_LIMIT = 3;
+    private static final int LOCKSTEP_BACKLOG_LIMIT = 300;
+    private final ArrayDeque<Object> outbox = new ArrayDeque<>();
+    private int queuedSnapshots = 0;
+    // Queued last by closeWhenSent(); the writer closes when it gets here
+    private static final Object CLOSE = new Object();
+    private boolean lockstepStarted = false;
+    private final ReentrantLock outboxLock = new ReentrantLock();
+    private final Condition outboxReady = outboxLock.newCondition();
+    private int evictedSnapshots = 0;
+    // Input buffer depth last logged
+    private int inputDepth = 0;
+    private ThreadFactory threads;
+
+    // Snapshot rate and size for this client's link
+    private final CongestionController congestion;
+    private volatile SnapshotPrioritizer prioritizer;
+    // This client's culled or trimmed snapshot is encoded here
+    private final WireCodec.FrameBuffer snapshotBuffer = new WireCodec.FrameBuffer(8192);
+    // Commands (TCP or UDP) wait here until the game loop takes them
+    private final InputJitterBuffer inputs;
+
+    // Set at login; presented again to take this slot back after a drop
+    private volatile long reconnectToken;
+    // Next snapshot goes out whole and at once (client just reconnected)
+    private volatile boolean keyframeDue = false;
 
     public ClientHandler(int playerId, Socket socket, GameServer server) {
         this.playerId = playerId;
         this.socket = socket;
         this.server = server;
+        this.prioritizer = new SnapshotPrioritizer(playerId);
+        this.congestion = new CongestionController(server.getTickRate());
+        this.inputs = new InputJitterBuffer(server.getTickRate());
+    }
+
+    /**
+     * Start reading from (and later writing to) the client on threads
+     * made by 'threads'.
+     */
+    public void start(ThreadFactory threads) {
+        this.threads = threads;
+        Thread reader = threads.newThread(this);
+        reader.setName("client-" + playerId + "-reader");
+        reader.start();
     }
 
     @Override
@@ -33,6 +116,11 @@ public class ClientHandler extends Thread {
             out.writeInt(playerId);
             out.flush();
 
+            Thread writer = threads.newThread(this::writeLoop);
+            writer.setName("client-" + playerId + "-writer");
+            writer.setDaemon(true);
+            writer.start();
+
             // 3) Then construct input stream
             in = new ObjectInputStream(socket.getInputStream());
 
@@ -42,9 +130,23 @@ public class ClientHandler extends Thread {
                 if (obj instanceof Command) {
                     Command cmd = (Command) obj;
                     server.receiveCommand(playerId, cmd);
-                }else if(obj instanceof LoginAttempt){
+                }else if(closing){
+                    // refused; the answer is on its way out
+                }else if(obj instanceof LoginAttempt && !loginCompleted && !loginPending){
                     LoginAttempt loginAttempt = (LoginAttempt)obj;
+                    loginPending = true;
+                    compressionSupported = loginAttempt.compressionSupported;
                     server.receiveLoginAttempt(playerId, loginAttempt);
+                }else if(obj instanceof LockstepStart){
+                    // Out of step: wants to start over
+                    server.requestLockstepStart(playerId);
+                }else if(obj instanceof Ping){
+                    Ping ping = (Ping) obj;
+                    if (ping.reply) {
+                        netStats.onPingReply(ping);
+                    } else {
+                        enqueue(ping.toReply());
+                    }
                 }
             }
         } catch (IOException | ClassNotFoundException e) {
@@ -54,33 +156,337 @@ public class ClientHandler extends Thread {
         }
     }
 
-    public void sendGameState(GameState state) {
+    /**
+     * Queue an encoded snapshot for TCP, compressed if this link needs it
+     * and this tick's compression budget allows. Called on the game thread.
+     */
+    public void sendSnapshot(byte[] encoded, int length, CompressionBudget budget) {
         if (out != null && loginCompleted) {
+            // Make room first; the writer thread only takes from the
+            // outbox, so the room is still there once the frame is built
+            outboxLock.lock();
+            try {
+                if (queuedSnapshots >= OUTBOX_LIMIT) {
+                    evictedSnapshots++;
+                    SnapshotFrame oldest = null;
+                    for (Object queued : outbox) {
+                        if (queued instanceof SnapshotFrame) {
+                            oldest = (SnapshotFrame) queued;
+                            break;
+                        }
+                    }
+                    if (oldest.compressed) return;
+                    outbox.removeFirstOccurrence(oldest);
+                    queuedSnapshots--;
+                }
+            } finally {
+                outboxLock.unlock();
+            }
+
+            SnapshotFrame frame = new SnapshotFrame();
+            SnapshotCompressor compressor = tcpCompressor;
+            if (compressor != null && budget.available()) {
+                long start = System.nanoTime();
+                frame.data = compressor.compress(encoded, length);
+                frame.compressed = true;
+                budget.charge(System.nanoTime() - start);
+            } else {
+                frame.data = Arrays.copyOf(encoded, length);
+            }
+
+            outboxLock.lock();
             try {
-                out.reset();
-                out.writeObject(state);
-                out.flush();
-            } catch (IOException e) {
-                System.out.println("Failed to send game state to player " + playerId);
-                close();
+                outbox.addLast(frame);
+                queuedSnapshots++;
+                outboxReady.signalAll();
+            } finally {
+                outboxLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Queue a message that is never dropped. Any thread.
+     */
+    private void enqueue(Object message) {
+        outboxLock.lock();
+        try {
+            outbox.addLast(message);
+            outboxReady.signalAll();
+        } finally {
+            outboxLock.unlock();
+        }
+    }
+
+    /**
+     * Close once everything queued so far is written, e.g. after a
+     * refused login, so the client gets to see why.
+     */
+    public void closeWhenSent() {
+        closing = true;
+        enqueue(CLOSE);
+    }
+
+    /**
+     * Queue a lockstep message (LockstepStart or LockstepFrame). Returns
+     * false, dropping the backlog, if the client has fallen too far
+     * behind to catch up with frames. Game thread.
+     */
+    public boolean sendLockstep(Object message) {
+        outboxLock.lock();
+        try {
+            if (outbox.size() >= LOCKSTEP_BACKLOG_LIMIT) {
+                // Only lockstep frames can have piled up this far; keep
+                // anything else
+                outbox.removeIf(queued -> queued instanceof LockstepFrame
+                        || queued instanceof LockstepStart);
+                return false;
+            }
+            outbox.addLast(message);
+            outboxReady.signalAll();
+            return true;
+        } finally {
+            outboxLock.unlock();
+        }
+    }
+
+    /**
+     * Whether this client has had its LockstepStart. Game thread.
+     */
+    public boolean isLockstepStarted() {
+        return lockstepStarted;
+    }
+
+    public void setLockstepStarted(boolean lockstepStarted) {
+        this.lockstepStarted = lockstepStarted;
+    }
+
+    /**
+     * Writes the outbox to the socket; blocking here only holds up this
+     * client.
+     */
+    private void writeLoop() {
+        try {
+            while (running) {
+                Object message;
+                outboxLock.lock();
+                try {
+                    while (running && outbox.isEmpty()) outboxReady.await();
+                    if (!running) return;
+                    message = outbox.pollFirst();
+                    if (message instanceof SnapshotFrame) queuedSnapshots--;
+                } finally {
+                    outboxLock.unlock();
+                }
+                if (message == CLOSE) {
+                    close();
+                    return;
+                }
+                long start = System.nanoTime();
+                writeMessage(message);
+                if (message instanceof SnapshotFrame) {
+                    noteWriteTime(System.nanoTime() - start);
+                    congestion.onDelivered(((SnapshotFrame) message).data.length);
+                }
             }
+        } catch (IOException e) {
+            System.out.println("Failed to send game state to player " + playerId);
+            close();
+        } catch (InterruptedException ignored) {}
+    }
+
+    /**
+     * Re-evaluate this client's snapshot rate and size. Game thread.
+     */
+    public void updateCongestion() {
+        int queued, evicted;
+        outboxLock.lock();
+        try {
+            queued = queuedSnapshots;
+            evicted = evictedSnapshots;
+            evictedSnapshots = 0;
+        } finally {
+            outboxLock.unlock();
         }
+        if (congestion.update(netStats, queued, evicted)) {
+            System.out.println("Player " + playerId + " snapshots: " + congestion);
+        }
+        int depth = inputs.getDepth();
+        if (depth != inputDepth) {
+            inputDepth = depth;
+            System.out.println(String.format("Player %d inputs held %d ticks (jitter %.1f ticks)",
+                    playerId, depth, inputs.getJitterTicks()));
+        }
+    }
+
+    public CongestionController getCongestion() {
+        return congestion;
+    }
+
+    public SnapshotPrioritizer getPrioritizer() {
+        return prioritizer;
     }
 
-    public void answerLoginAttempt(LoginAttempt loginAttempt) throws IOException {
+    public WireCodec.FrameBuffer getSnapshotBuffer() {
+        return snapshotBuffer;
+    }
+
+    public InputJitterBuffer getInputs() {
+        return inputs;
+    }
+
+    /**
+     * A write that blocks means the socket buffer is full, i.e. the
+     * client's bandwidth is what limits us; that is when compressing pays.
+     */
+    private void noteWriteTime(long nanos) {
+        writeNanosAvg += (nanos - writeNanosAvg) * 0.1;
+        if (tcpCompressor == null && compressionSupported && writeNanosAvg > SLOW_WRITE_NANOS) {
+            tcpCompressor = new SnapshotCompressor(false);
+            System.out.println("Compressing snapshots for player " + playerId);
+        }
+    }
+
+    /**
+     * Per-datagram compressor for the UDP channel, or null if this client
+     * can't inflate. Only used from the game thread.
+     */
+    public SnapshotCompressor getUdpCompressor() {
+        if (!compressionSupported) return null;
+        if (udpCompressor == null) udpCompressor = new SnapshotCompressor(true);
+        return udpCompressor;
+    }
+
+    /**
+     * Measure RTT and clock offset; the reply lands in getNetStats().
+     */
+    public void sendPing() {
+        if (out == null || !loginCompleted) return;
+        enqueue(Ping.create());
+    }
+
+    public NetStats getNetStats() {
+        return netStats;
+    }
+
+    private void writeMessage(Object message) throws IOException {
+        out.reset();
+        out.writeObject(message);
+        out.flush();
+    }
+
+    /**
+     * Queue the answer to a login and, if accepted, the static map that
+     * goes with it; both go out before any snapshot.
+     */
+    public void answerLoginAttempt(LoginAttempt loginAttempt, MapData mapData) {
         if(out != null){
-            out.reset();
-            out.writeObject(loginAttempt);
-            out.flush();
+            // A refused client may try again (another name) once it has
+            // this answer; an accepted one is done logging in
+            if (!loginAttempt.accessAllowed) loginPending = false;
+            outboxLock.lock();
+            try {
+                outbox.addLast(loginAttempt);
+                if (mapData != null) outbox.addLast(mapData);
+                outboxReady.signalAll();
+            } finally {
+                outboxLock.unlock();
+            }
 
-            System.out.println("The login was successful with an username " + loginAttempt.username);
-            loginCompleted = true;
+            if (loginAttempt.accessAllowed) {
+                System.out.println("The login was successful with an username " + loginAttempt.username);
+                loginCompleted = true;
+            }
         }
     }
 
-    private void close() {
+    public int getPlayerId() {
+        return playerId;
+    }
+
+    /**
+     * Take over the slot of a player who reconnected on this connection.
+     * Called before the login is answered, so nothing was sent as the
+     * old id.
+     */
+    public void rebind(int playerId) {
+        this.playerId = playerId;
+        this.prioritizer = new SnapshotPrioritizer(playerId);
+    }
+
+    public long getReconnectToken() {
+        return reconnectToken;
+    }
+
+    public void setReconnectToken(long reconnectToken) {
+        this.reconnectToken = reconnectToken;
+    }
+
+    /**
+     * Send the next snapshot in full, whatever the congestion state.
+     */
+    public void requestKeyframe() {
+        keyframeDue = true;
+    }
+
+    /**
+     * Whether this snapshot must be a keyframe; clears the request.
+     * Game thread (or the encode pool task for this client).
+     */
+    public boolean takeKeyframe() {
+        if (!keyframeDue) return false;
+        keyframeDue = false;
+        return true;
+    }
+
+    public SocketAddress getUdpAddress() {
+        return udpAddress;
+    }
+
+    public void setUdpAddress(SocketAddress udpAddress) {
+        this.udpAddress = udpAddress;
+    }
+
+    public long getUdpToken() {
+        return udpToken;
+    }
+
+    public void setUdpToken(long udpToken) {
+        this.udpToken = udpToken;
+    }
+
+    /**
+     * Snapshots go over UDP once the client has said HELLO.
+     */
+    public boolean usesUdp() {
+        return loginCompleted && udpAddress != null;
+    }
+
+    public int nextSnapshotSeq() {
+        return ++snapshotSeq;
+    }
+
+    public int getLastInputSeq() {
+        return lastInputSeq;
+    }
+
+    public void setLastInputSeq(int lastInputSeq) {
+        this.lastInputSeq = lastInputSeq;
+    }
+
+    /**
+     * Drop the connection; both threads end.
+     */
+    public void close() {
+        if (!running) return;
         running = false;
-        server.removeClient(playerId);
+        outboxLock.lock();
+        try {
+            outboxReady.signalAll();
+        } finally {
+            outboxLock.unlock();
+        }
+        server.removeClient(playerId, this);
 
         try { if (in != null) in.close(); } catch (IOException e) {}
         try { if (out != null) out.close(); } catch (IOException e) {}
@@ -0,0 +1,56 @@
+/**
+ * What the client overlay shows: NetStats from pings plus snapshot rate,
+ * inbound bandwidth and dropped snapshots over the last second.
+ */
+public class ClientNetStats {
+
+    private final NetStats ping = new NetStats();
+
+    private long windowStart = System.nanoTime();
+    private int windowFrames;
+    private long windowBytes;
+
+    private double snapshotsPerSecond;
+    private double kilobytesPerSecond;
+    private long droppedFrames;
+
+    public NetStats getPingStats() {
+        return ping;
+    }
+
+    /**
+     * A snapshot of 'bytes' bytes (as received, before inflating) arrived.
+     */
+    public synchronized void onSnapshot(int bytes) {
+        windowFrames++;
+        windowBytes += bytes;
+        long now = System.nanoTime();
+        long elapsed = now - windowStart;
+        if (elapsed >= 1_000_000_000L) {
+            snapshotsPerSecond = windowFrames * 1e9 / elapsed;
+            kilobytesPerSecond = windowBytes * 1e9 / elapsed / 1024;
+            windowFrames = 0;
+            windowBytes = 0;
+            windowStart = now;
+        }
+    }
+
+    /**
+     * Snapshots that were lost or arrived too late to be shown.
+     */
+    public synchronized void onDropped(int count) {
+        droppedFrames += count;
+    }
+
+    public synchronized double getSnapshotsPerSecond() {
+        return snapshotsPerSecond;
+    }
+
+    public synchronized double getKilobytesPerSecond() {
+        return kilobytesPerSecond;
+    }
+
+    public synchronized long getDroppedFrames() {
+        return droppedFrames;
+    }
+}
@@ -17,4 +17,15 @@ public class Command implements Serializable {
 
     // Shooting on/off
     public boolean shooting;
+
+    // Tick of the newest GameState the client had when sending this,
+    // used by the server to check hits where the player saw them
+    public long ackTick;
+
+    // Sequence number assigned by the client, increasing per command sent
+    public int seq;
+
+    // Client's own clock when it sent this (ms, any origin); the server
+    // measures how unevenly commands arrive against it. 0 = not set
+    public long sentMillis;
 }
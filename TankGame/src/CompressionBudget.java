@@ -0,0 +1,28 @@
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caps the CPU time snapshot compression may take per tick. Once this
+ * tick's share is used up, remaining clients get uncompressed frames,
+ * so compression can never push a tick past its deadline.
+ */
+public class CompressionBudget {
+
+    private final long nanosPerTick;
+    private final AtomicLong spent = new AtomicLong();
+
+    public CompressionBudget(long nanosPerTick) {
+        this.nanosPerTick = nanosPerTick;
+    }
+
+    public void startTick() {
+        spent.set(0);
+    }
+
+    public boolean available() {
+        return spent.get() < nanosPerTick;
+    }
+
+    public void charge(long nanos) {
+        spent.addAndGet(nanos);
+    }
+}
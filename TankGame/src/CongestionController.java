@@ -0,0 +1,114 @@
+/**
+ * Picks how often one client gets a snapshot and how big it may be,
+ * from what its connection tells us: smoothed RTT against the best RTT
+ * seen, how many snapshots are waiting in its outbox, and how many bytes
+ * per second actually got through.
+ *
+ * Backs off multiplicatively on congestion (interval doubles, budget is
+ * set to what the link delivered) and recovers additively, so a weak
+ * link settles at the rate it can carry instead of queueing latency.
+ */
+public class CongestionController {
+
+    // Slowest we ever go: 10 snapshots per second
+    private static final int MIN_RATE_HZ = 10;
+    // Smallest byte budget a snapshot is trimmed to
+    private static final int MIN_BUDGET = 512;
+    // RTT this far above the best one seen means we're filling a queue
+    private static final double RTT_SLACK_MS = 25;
+
+    private final int tickRate;
+    private final int maxInterval;
+
+    private int intervalTicks = 1;
+    private int byteBudget = Integer.MAX_VALUE;
+    private long lastSentTick = Long.MIN_VALUE / 2;
+
+    private double minRttMs = Double.MAX_VALUE;
+    private int rttSamplesSeen = 0;
+    private long windowStartNanos = System.nanoTime();
+    private long deliveredBytes;
+    private double deliveredPerSecond;
+
+    public CongestionController(int tickRate) {
+        this.tickRate = tickRate;
+        this.maxInterval = Math.max(1, tickRate / MIN_RATE_HZ);
+    }
+
+    /**
+     * Game thread: is this client due a snapshot on 'tick'?
+     */
+    public boolean shouldSend(long tick) {
+        if (tick - lastSentTick < intervalTicks) return false;
+        lastSentTick = tick;
+        return true;
+    }
+
+    /**
+     * Bytes that made it onto the wire (writer thread or game thread).
+     */
+    public synchronized void onDelivered(int bytes) {
+        deliveredBytes += bytes;
+    }
+
+    /**
+     * Re-evaluate the rate, a few times a second from the game thread.
+     * 'queued' is the outbox depth; 'evicted' counts snapshots dropped
+     * unsent since the last call.
+     */
+    public synchronized boolean update(NetStats rtt, int queued, int evicted) {
+        long now = System.nanoTime();
+        double seconds = (now - windowStartNanos) / 1e9;
+        if (seconds > 0) {
+            deliveredPerSecond = deliveredBytes / seconds;
+        }
+        deliveredBytes = 0;
+        windowStartNanos = now;
+
+        // Pings are rarer than updates; judge each RTT sample only once
+        boolean rttInflated = false;
+        if (rtt.getSampleCount() != rttSamplesSeen) {
+            rttSamplesSeen = rtt.getSampleCount();
+            minRttMs = Math.min(minRttMs, rtt.getRttMs());
+            rttInflated = rtt.getRttMs() > minRttMs * 2 + RTT_SLACK_MS;
+        }
+        boolean congested = evicted > 0 || queued > 1 || rttInflated;
+
+        int oldInterval = intervalTicks;
+        int oldBudget = byteBudget;
+        if (congested) {
+            intervalTicks = Math.min(maxInterval, intervalTicks * 2);
+            double perSnapshot = deliveredPerSecond * intervalTicks / tickRate;
+            byteBudget = (int) Math.max(MIN_BUDGET, Math.min(byteBudget, perSnapshot));
+        } else if (intervalTicks > 1) {
+            intervalTicks--;
+        } else if (byteBudget != Integer.MAX_VALUE) {
+            // Full rate again; grow the budget until snapshots stop being trimmed
+            byteBudget = byteBudget > Integer.MAX_VALUE / 2 ? Integer.MAX_VALUE : byteBudget * 5 / 4;
+        }
+        return intervalTicks != oldInterval || (byteBudget != oldBudget && congested);
+    }
+
+    public int getIntervalTicks() {
+        return intervalTicks;
+    }
+
+    public int getRateHz() {
+        return tickRate / intervalTicks;
+    }
+
+    /**
+     * Largest encoded snapshot this client should get; bigger ones are
+     * trimmed by SnapshotPrioritizer.
+     */
+    public synchronized int getByteBudget() {
+        return byteBudget;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return getRateHz() + " Hz, budget "
+                + (byteBudget == Integer.MAX_VALUE ? "unlimited" : byteBudget + " B")
+                + String.format(", delivered %.1f KB/s", deliveredPerSecond / 1024);
+    }
+}
@@ -0,0 +1,48 @@
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Makes the threads behind client connections: a reader and a writer
+ * per client. With -Dtankgame.connectionThreads=virtual they are virtual
+ * threads when the JVM has them (Java 21+), so thousands of mostly idle
+ * connections cost a few KB each instead of a platform thread's stack.
+ * Anything else, or an older JVM, gives platform threads.
+ *
+ * Code running on these threads must not block inside 'synchronized'
+ * (that pins a virtual thread to its carrier); ClientHandler guards its
+ * socket and outbox with ReentrantLocks for this reason.
+ */
+public final class ConnectionThreads {
+
+    public static final String PLATFORM = "platform";
+    public static final String VIRTUAL = "virtual";
+
+    private ConnectionThreads() {}
+
+    public static ThreadFactory create(String mode) {
+        if (VIRTUAL.equals(mode)) {
+            ThreadFactory virtual = virtualFactory();
+            if (virtual != null) {
+                System.out.println("Client connections run on virtual threads");
+                return virtual;
+            }
+            System.out.println("Virtual threads need Java 21+, using platform threads");
+        }
+        return Thread::new;
+    }
+
+    /**
+     * Thread.ofVirtual().factory(), looked up reflectively so the server
+     * still builds and runs on Java 8; null if it isn't there.
+     */
+    private static ThreadFactory virtualFactory() {
+        try {
+            Method ofVirtual = Thread.class.getMethod("ofVirtual");
+            Object builder = ofVirtual.invoke(null);
+            Method factory = Class.forName("java.lang.Thread$Builder").getMethod("factory");
+            return (ThreadFactory) factory.invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+}
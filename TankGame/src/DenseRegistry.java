@@ -0,0 +1,97 @@
+import java.util.Arrays;
+
+/**
+ * Entities packed in one array, found by id through an IntIndexMap.
+ * Iterate with an index loop over at(0 .. size() - 1): no iterator, no
+ * boxing. Ids are the stable handles; an entity's index changes when
+ * another one is removed, because removal moves the last entity into
+ * the hole (O(1), but order isn't kept).
+ *
+ * Removing at index i while looping is fine when the loop runs from the
+ * end down.
+ */
+public final class DenseRegistry<T> {
+
+    private Object[] items;
+    private int[] ids;
+    private int size;
+    private final IntIndexMap index;
+
+    public DenseRegistry(int expected) {
+        int capacity = Math.max(4, expected);
+        items = new Object[capacity];
+        ids = new int[capacity];
+        index = new IntIndexMap(capacity);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    public T at(int i) {
+        return (T) items[i];
+    }
+
+    public int idAt(int i) {
+        return ids[i];
+    }
+
+    /**
+     * The entity with this id, or null.
+     */
+    @SuppressWarnings("unchecked")
+    public T get(int id) {
+        int i = index.get(id);
+        return i < 0 ? null : (T) items[i];
+    }
+
+    public boolean contains(int id) {
+        return index.get(id) >= 0;
+    }
+
+    /**
+     * Add (or replace) the entity with this id.
+     */
+    public void put(int id, T item) {
+        int i = index.get(id);
+        if (i >= 0) {
+            items[i] = item;
+            return;
+        }
+        if (size == items.length) {
+            items = Arrays.copyOf(items, size * 2);
+            ids = Arrays.copyOf(ids, size * 2);
+        }
+        items[size] = item;
+        ids[size] = id;
+        index.put(id, size);
+        size++;
+    }
+
+    /**
+     * Remove the entity with this id; returns it, or null.
+     */
+    public T remove(int id) {
+        int i = index.get(id);
+        if (i < 0) return null;
+        T item = at(i);
+        removeAt(i);
+        return item;
+    }
+
+    public void removeAt(int i) {
+        index.remove(ids[i]);
+        int last = --size;
+        if (i != last) {
+            items[i] = items[last];
+            ids[i] = ids[last];
+            index.put(ids[i], i);
+        }
+        items[last] = null;
+    }
+}
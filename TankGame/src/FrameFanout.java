@@ -0,0 +1,119 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Sends the newest encoded snapshot to any number of read-only
+ * subscribers, each on its own thread. A subscriber that falls behind
+ * skips straight to the latest frame: every frame is a full snapshot,
+ * so the latest one is always a valid catch-up keyframe. New
+ * subscribers get the current frame immediately.
+ *
+ * An optional header frame (the arena's MapData) goes to every
+ * subscriber before its first frame, and again if it changes.
+ */
+public class FrameFanout {
+
+    private final Object lock = new Object();
+    private byte[] latest;
+    private long version = 0;
+    private byte[] header;
+    private long headerVersion = 0;
+    private volatile boolean running = true;
+
+    private final List<Socket> subscribers = new CopyOnWriteArrayList<>();
+    private ServerSocket serverSocket;
+
+    public void publish(byte[] frame) {
+        synchronized (lock) {
+            latest = frame;
+            version++;
+            lock.notifyAll();
+        }
+    }
+
+    public void setHeader(byte[] header) {
+        synchronized (lock) {
+            this.header = header;
+            headerVersion++;
+        }
+    }
+
+    public int getSubscriberCount() {
+        return subscribers.size();
+    }
+
+    /**
+     * Accept subscribers on 'port' from a background thread.
+     */
+    public void listen(int port, String name) throws IOException {
+        serverSocket = new ServerSocket(port);
+        Thread acceptor = new Thread(() -> {
+            while (running) {
+                try {
+                    addSubscriber(serverSocket.accept());
+                } catch (IOException e) {
+                    if (running) System.out.println(name + " accept failed: " + e.getMessage());
+                    return;
+                }
+            }
+        }, name + "-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    public void addSubscriber(Socket socket) {
+        subscribers.add(socket);
+        Thread t = new Thread(() -> serve(socket), "fanout-" + socket.getRemoteSocketAddress());
+        t.setDaemon(true);
+        t.start();
+    }
+
+    private void serve(Socket socket) {
+        long sent = 0;
+        long sentHeader = 0;
+        try {
+            socket.setTcpNoDelay(true);
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+            while (running) {
+                byte[] frame;
+                byte[] newHeader = null;
+                synchronized (lock) {
+                    while (running && (latest == null || version == sent)) {
+                        lock.wait();
+                    }
+                    if (!running) break;
+                    frame = latest;
+                    sent = version;
+                    if (headerVersion != sentHeader) {
+                        newHeader = header;
+                        sentHeader = headerVersion;
+                    }
+                }
+                if (newHeader != null) WireCodec.writeFrame(out, newHeader);
+                WireCodec.writeFrame(out, frame);
+            }
+        } catch (IOException | InterruptedException e) {
+            // subscriber went away
+        } finally {
+            subscribers.remove(socket);
+            try { socket.close(); } catch (IOException ignored) {}
+        }
+    }
+
+    public void close() {
+        running = false;
+        synchronized (lock) {
+            lock.notifyAll();
+        }
+        try { if (serverSocket != null) serverSocket.close(); } catch (IOException ignored) {}
+        for (Socket s : subscribers) {
+            try { s.close(); } catch (IOException ignored) {}
+        }
+    }
+}
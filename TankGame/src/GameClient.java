@@ -17,13 +17,33 @@ public class GameClient extends JFrame {
     private Socket socket;
     private String username;
 
-    private ObjectOutputStream out;
+    private volatile ObjectOutputStream out;
     private ObjectInputStream in;
+    // Guards 'out', which is replaced when we reconnect
+    private final Object outLock = new Object();
+
+    // After a dropped connection, try this many times (waiting a little
+    // longer each time) to get our tank back with the reconnect token
+    private static final int RECONNECT_ATTEMPTS = 5;
+    private static final long RECONNECT_BACKOFF_MS = 1000;
 
     private GamePanel gamePanel;
 
+    // Snapshot/input channel, if the server offered UDP at login
+    private UdpClientChannel udpChannel;
+    private LoginAttempt loginAnswer;
+
+    // RTT, clock offset and snapshot stats for the F3 overlay
+    private final ClientNetStats netStats = new ClientNetStats();
+    private static final long PING_INTERVAL_MS = 1000;
+
+    // Lockstep mode: our own simulation, stepped by the server's inputs
+    private final LockstepPeer lockstep = new LockstepPeer();
+
     // This Command holds the current user input (WASD, turret angle, etc.).
     private Command currentCommand = new Command();
+    // Origin of Command.sentMillis
+    private final long startNanos = System.nanoTime();
 
     // The ID of this client, as assigned by the server
     private int localPlayerId = -1;
@@ -42,11 +62,18 @@ public class GameClient extends JFrame {
     /**
      * Constructor used AFTER successful login (displays the actual game).
      */
-    public GameClient(Socket socket, int localPlayerId, ObjectOutputStream out, ObjectInputStream in) {
+    public GameClient(Socket socket, int localPlayerId, ObjectOutputStream out, ObjectInputStream in,
+                      LoginAttempt loginAnswer) {
         this.socket = socket;
         this.localPlayerId = localPlayerId;
         this.out = out;
         this.in = in;
+        this.loginAnswer = loginAnswer;
+
+        // The login timeout no longer applies: with UDP the TCP side can be quiet
+        try {
+            socket.setSoTimeout(0);
+        } catch (IOException ignored) {}
 
         setTitle("Tank Game");
         setExtendedState(JFrame.MAXIMIZED_BOTH);
@@ -165,24 +192,28 @@ public class GameClient extends JFrame {
             ObjectOutputStream out = new ObjectOutputStream(socket.getOutputStream());
             ObjectInputStream in = new ObjectInputStream(socket.getInputStream());
 
-            // Server sends us our assigned playerId
+            // Server sends us our assigned playerId (or says it won't)
             localPlayerId = in.readInt();
 
             // 1) Send the desired username
-            LoginAttempt loginAttempt = new LoginAttempt();
-            loginAttempt.username = username;
-            out.writeObject(loginAttempt);
-            out.flush();
+            if (localPlayerId != LoginAttempt.REFUSED) {
+                LoginAttempt loginAttempt = new LoginAttempt();
+                loginAttempt.username = username;
+                loginAttempt.compressionSupported = true;
+                out.writeObject(loginAttempt);
+                out.flush();
+            }
 
             Object input = in.readObject();
 
             if (input instanceof LoginAttempt) {
                 if (((LoginAttempt) input).accessAllowed) {
                     // Switch to the GameClient main window
-                    new GameClient(socket, localPlayerId, out, in).setVisible(true);
+                    new GameClient(socket, localPlayerId, out, in, (LoginAttempt) input).setVisible(true);
                     this.dispose();
                 } else {
-                    statusLabel.setText("Login rejected by server.");
+                    String refusal = ((LoginAttempt) input).refusal;
+                    statusLabel.setText(refusal != null ? refusal + "." : "Login rejected by server.");
                 }
             }
 
@@ -200,43 +231,215 @@ public class GameClient extends JFrame {
      */
     private void connectToServer() {
         gamePanel.setLocalPlayerId(localPlayerId);
+        gamePanel.setNetStats(netStats);
         // 2) Start a background thread to listen for GameState updates
         new Thread(this::listenForGameState).start();
+
+        Thread pinger = new Thread(this::pingLoop, "ping");
+        pinger.setDaemon(true);
+        pinger.start();
+
+        startUdpChannel();
+    }
+
+    /**
+     * Snapshots and inputs move to UDP if the server offered it at login;
+     * until the server sees our HELLO they keep coming over TCP.
+     */
+    private void startUdpChannel() {
+        if (loginAnswer.udpPort > 0) {
+            try {
+                udpChannel = new UdpClientChannel(socket.getInetAddress(), loginAnswer.udpPort,
+                        localPlayerId, loginAnswer.udpToken, gamePanel, netStats);
+            } catch (IOException e) {
+                System.out.println("UDP unavailable, staying on TCP: " + e.getMessage());
+            }
+        }
     }
 
     /**
      * Continuously read GameState objects from the server.
-     * If server stops or connection is lost, show error message and exit.
+     * If the connection is lost and can't be got back, show an error
+     * message and exit.
      */
     private void listenForGameState() {
-        try {
-            while (true) {
-                Object obj = in.readObject();
-                if (obj instanceof GameState) {
-                    GameState gs = (GameState) obj;
-                    gamePanel.setGameState(gs);
+        while (true) {
+            try {
+                readMessages();
+            } catch (IOException | ClassNotFoundException e) {
+                // Lost connection after being connected
+                if (!reconnect()) {
+                    showConnectionError("Connection to the server was lost. The server may have stopped.");
+                    return;
                 }
             }
-        } catch (IOException | ClassNotFoundException e) {
-            // Lost connection after being connected
-            showConnectionError("Connection to the server was lost. The server may have stopped.");
         }
     }
 
+    /**
+     * Read from the current connection until it fails.
+     */
+    private void readMessages() throws IOException, ClassNotFoundException {
+        // A new connection's compressed stream starts from scratch
+        SnapshotDecompressor decompressor = new SnapshotDecompressor(false);
+        while (true) {
+            Object obj = in.readObject();
+            if (obj instanceof SnapshotFrame) {
+                SnapshotFrame frame = (SnapshotFrame) obj;
+                netStats.onSnapshot(frame.data.length);
+                DataInputStream data;
+                if (frame.compressed) {
+                    decompressor.decompress(frame.data, 0, frame.data.length);
+                    data = new DataInputStream(new ByteArrayInputStream(
+                            decompressor.buffer(), 0, decompressor.length()));
+                } else {
+                    data = new DataInputStream(new ByteArrayInputStream(frame.data));
+                }
+                gamePanel.setGameState(WireCodec.readGameState(data));
+            } else if (obj instanceof MapData) {
+                gamePanel.setMapData((MapData) obj);
+            } else if (obj instanceof LockstepStart) {
+                lockstep.start((LockstepStart) obj);
+                gamePanel.setGameState(lockstep.buildGameState());
+            } else if (obj instanceof LockstepFrame) {
+                LockstepFrame frame = (LockstepFrame) obj;
+                netStats.onSnapshot(frame.inputs.length);
+                if (!lockstep.apply(frame)) {
+                    writeMessage(new LockstepStart()); // ask to start over
+                } else if (lockstep.isStarted()) {
+                    gamePanel.setGameState(lockstep.buildGameState());
+                }
+            } else if (obj instanceof Ping) {
+                Ping ping = (Ping) obj;
+                if (ping.reply) {
+                    netStats.getPingStats().onPingReply(ping);
+                } else {
+                    writeMessage(ping.toReply());
+                }
+            }
+        }
+    }
+
+    /**
+     * Open a new connection and present our reconnect token; the server
+     * gives us our tank back and a full snapshot right away. False if the
+     * server can't be reached or no longer knows the token.
+     */
+    private boolean reconnect() {
+        String host = socket.getInetAddress().getHostAddress();
+        int port = socket.getPort();
+        if (udpChannel != null) {
+            udpChannel.close();
+            udpChannel = null;
+        }
+        for (int attempt = 1; attempt <= RECONNECT_ATTEMPTS; attempt++) {
+            try {
+                Thread.sleep(RECONNECT_BACKOFF_MS * attempt);
+            } catch (InterruptedException e) {
+                return false;
+            }
+            System.out.println("Reconnecting to the server, attempt " + attempt);
+            Socket s = null;
+            try {
+                s = new Socket(host, port);
+                s.setSoTimeout(2000);
+                ObjectOutputStream newOut = new ObjectOutputStream(s.getOutputStream());
+                ObjectInputStream newIn = new ObjectInputStream(s.getInputStream());
+                if (newIn.readInt() == LoginAttempt.REFUSED) {
+                    s.close(); // busy; try again after the next wait
+                    continue;
+                }
+                // The fresh id we were given is replaced by our old one
+                LoginAttempt attemptMsg = new LoginAttempt();
+                attemptMsg.username = loginAnswer.username;
+                attemptMsg.reconnectToken = loginAnswer.reconnectToken;
+                attemptMsg.compressionSupported = true;
+                newOut.writeObject(attemptMsg);
+                newOut.flush();
+
+                Object input = newIn.readObject();
+                if (!(input instanceof LoginAttempt) || !((LoginAttempt) input).accessAllowed) {
+                    s.close();
+                    return false;
+                }
+                LoginAttempt answer = (LoginAttempt) input;
+                s.setSoTimeout(0);
+                try {
+                    socket.close();
+                } catch (IOException ignored) {}
+                synchronized (outLock) {
+                    socket = s;
+                    out = newOut;
+                }
+                in = newIn;
+                loginAnswer = answer;
+                localPlayerId = answer.playerId;
+                gamePanel.setLocalPlayerId(localPlayerId);
+                startUdpChannel();
+                return true;
+            } catch (IOException | ClassNotFoundException e) {
+                if (s != null) {
+                    try {
+                        s.close();
+                    } catch (IOException ignored) {}
+                }
+            }
+        }
+        return false;
+    }
+
     /**
      * Send the current Command object to the server.
      */
     private void sendCommand() {
         if (out == null) return;
         try {
-            out.reset();
-            out.writeObject(currentCommand);
-            out.flush();
+            GameState gs = gamePanel.getGameState();
+            if (gs != null) currentCommand.ackTick = gs.tick;
+            // Starts at 1: 0 means "no timestamp" to the server
+            currentCommand.sentMillis = (System.nanoTime() - startNanos) / 1_000_000 + 1;
+            if (udpChannel != null) {
+                udpChannel.sendCommand(currentCommand);
+                return;
+            }
+            writeMessage(currentCommand);
         } catch (IOException e) {
             System.out.println("Error sending command to server.");
         }
     }
 
+    /**
+     * Input (EDT), pings and ping replies all write to 'out'.
+     */
+    private void writeMessage(Object message) throws IOException {
+        synchronized (outLock) {
+            out.reset();
+            out.writeObject(message);
+            out.flush();
+        }
+    }
+
+    /**
+     * Ping the server once a second; replies feed the overlay.
+     */
+    private void pingLoop() {
+        while (true) {
+            try {
+                writeMessage(Ping.create());
+                Thread.sleep(PING_INTERVAL_MS);
+            } catch (IOException e) {
+                // listenForGameState reconnects or reports the lost connection
+                try {
+                    Thread.sleep(PING_INTERVAL_MS);
+                } catch (InterruptedException ie) {
+                    return;
+                }
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
     /**
      * Capture user input: WASD keys for movement, mouse for aiming/shooting.
      */
@@ -271,6 +474,9 @@ public class GameClient extends JFrame {
                             changed = true;
                         }
                         break;
+                    case KeyEvent.VK_F3:
+                        gamePanel.toggleNetOverlay();
+                        break;
                 }
                 if (changed) sendCommand();
             }
@@ -361,13 +567,9 @@ public class GameClient extends JFrame {
         double tankCenterX = localPlayer.x + localPlayer.width / 2.0;
         double tankCenterY = localPlayer.y + localPlayer.height / 2.0;
 
-        // Panel dimensions
-        int panelWidth = gamePanel.getWidth();
-        int panelHeight = gamePanel.getHeight();
-
-        // Convert mouse coords to "server" coords (assuming 1920x1080 game world)
-        double scaledMouseX = (e.getX() / (double) panelWidth) * 1920;
-        double scaledMouseY = (e.getY() / (double) panelHeight) * 1080;
+        // Convert mouse coords to "server" coords (through the camera)
+        double scaledMouseX = gamePanel.screenToWorldX(e.getX());
+        double scaledMouseY = gamePanel.screenToWorldY(e.getY());
 
         // Calculate angle from tank center to mouse position
         double angle = Math.atan2(scaledMouseY - tankCenterY, scaledMouseX - tankCenterX);
@@ -1,40 +1,367 @@
-import java.awt.Color;
 import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Consumer;
 
 public class GameLogic {
 
-    // The total map size
-    private static final int MAP_WIDTH = 1920;
-    private static final int MAP_HEIGHT = 1080;
-
     // We shrink top/bottom by these margins
     private static final int TOP_MARGIN = 10;
     private static final int BOTTOM_MARGIN = 10;
 
+    // Simulation rate; all timers are counted in ticks of this clock.
+    // Speeds are per second, so a lower rate only coarsens the steps.
+    public static final int DEFAULT_TICK_RATE = 60;
+
+    // Per second, turned into per-tick steps by the tick rate
+    private static final int TANK_SPEED = 300;
+    private static final int BULLET_SPEED = 900;
+
+    // Lag compensation: positions of about the last 250 ms are kept so
+    // hits can be checked where the shooter saw the target.
+    private static final int HISTORY_MS = 250;
+
+    public static final int DEFAULT_BUFF_COUNT = 5;
+
+    // Most buff modifiers one player can have active at once
+    private static final int MAX_MODIFIERS = 8;
+    // Stacked shrinks stop here, so a tank stays big enough to hit
+    private static final double MIN_SIZE_MULTIPLIER = 0.25;
+
     // Player data by ID
-    private Map<Integer, Player> players = new HashMap<>();
+    private DenseRegistry<Player> players = new DenseRegistry<>(64);
     private Set<String> usernames = new HashSet<>();
+    // Players from a checkpoint, by username, until someone logs in as them
+    private final Map<String, Checkpoint.PlayerState> restoredPlayers = new HashMap<>();
+
+    // All bullets in the game, by a handle handed out when fired
+    private final BulletStore bullets = new BulletStore(256);
+    private int nextBulletId = 0;
+    // Most bullets one player may have in flight; 0 = no cap
+    private int bulletCap = 0;
+
+    // Buffs on the map, by index
+    private DenseRegistry<ServerBuff> buffs = new DenseRegistry<>(16);
+
+    // Inputs queued by network threads, applied at the start of the next tick
+    private final Queue<InputEvent> pendingInputs = new ConcurrentLinkedQueue<>();
+
+    private final long seed;
+    private final SeededRandom rng;
+    private final int tickRate;
+
+    // Arena size and walls; the size used to be a fixed 1920x1080
+    private final ArenaMap map;
+    private final int mapWidth, mapHeight;
+
+    // Tries at a random spot before giving up on finding a wall-free one
+    private static final int MAX_PLACEMENT_TRIES = 100;
+
+    // Large worlds: entities are bucketed into chunks and only chunks
+    // within ACTIVE_RADIUS chunks of some player are simulated; bullets
+    // that fly out of them are dropped, nobody is there to be hit.
+    private static final int CHUNK_SIZE = 512;
+    private static final int ACTIVE_RADIUS = 3;
+    // How far a tank's rewound hit circle can be from where it is now,
+    // plus the largest tank and bullet radius
+    private static final int HIT_QUERY_MARGIN = 160;
+    private final ChunkGrid playerGrid;
+    private final ChunkGrid buffGrid;
+    private static final int BUFF_QUERY_MARGIN = 64;
+    private int[] nearbyBuffs = new int[16];
+    private final boolean[] activeChunks;
+    private long tick = 0;
+
+    // Ring size of the position history, a power of two
+    private final int historyTicks;
+    private final int historyMask;
+
+    // Bullet hits found this tick, resolved in time order
+    private final List<BulletHit> hits = new ArrayList<>();
+
+    // Optional parallel tick for big arenas: tank movement and the bullet
+    // hit search run per horizontal stripe of the map on this pool. What
+    // depends on order (firing, damage, pickups) stays on the game thread
+    // and hits are merged in their total order, so a parallel tick ends
+    // in exactly the state a serial one would.
+    private ForkJoinPool tickPool;
+    private Partition[] partitions = new Partition[0];
+    private final Partition serial = new Partition();
+    // Entity indices grouped by stripe; partition k owns [from, to)
+    private int[] partitionOrder = new int[256];
+    private int[] stripeKeys = new int[256];
+    private final List<ForkJoinTask<?>> partitionTasks = new ArrayList<>();
+    // Fewer entities than this aren't worth handing out
+    private static final int MIN_PARALLEL_WORK = 256;
+
+    private InputRecorder recorder;
+    private InputListener inputListener;
+    private volatile Runnable wakeListener;
+    private StatsListener statsListener;
+    private LoginListener loginListener;
 
-    // All bullets in the game
-    private List<ServerBullet> bullets = new ArrayList<>();
+    /**
+     * Told (on the game thread) whether a login attempt was accepted.
+     */
+    public interface LoginListener {
+        void onLoginResult(int playerId, String username, boolean accepted);
+    }
 
-    // Single buff on the map
-    private List<ServerBuff> buffs = new ArrayList<>();
+    /**
+     * Told (on the game thread) what logged-in players did, for stats
+     * kept across sessions. Implementations must return quickly.
+     */
+    public interface StatsListener {
+        void onDamage(String shooter, int damage);
+
+        // Either name is null if that player never logged in
+        void onKill(String killer, String victim);
+
+        void onSessionEnd(String username, long playMillis);
+    }
+
+    /**
+     * Told (on the game thread) about every input as it is applied.
+     */
+    public interface InputListener {
+        void onInput(long tick, InputEvent e);
+    }
 
     public GameLogic() {
+        this(System.nanoTime(), DEFAULT_BUFF_COUNT, DEFAULT_TICK_RATE, ArenaMap.empty());
+    }
+
+    public GameLogic(long seed, int buffCount, int tickRate, ArenaMap map) {
+        this.seed = seed;
+        this.rng = new SeededRandom(seed);
+        this.tickRate = tickRate;
+        this.map = map;
+        this.mapWidth = map.width;
+        this.mapHeight = map.height;
+        this.playerGrid = new ChunkGrid(mapWidth, mapHeight, CHUNK_SIZE);
+        this.buffGrid = new ChunkGrid(mapWidth, mapHeight, CHUNK_SIZE);
+        this.activeChunks = new boolean[playerGrid.getCols() * playerGrid.getRows()];
+        int history = 1;
+        while (history < tickRate * HISTORY_MS / 1000) history <<= 1;
+        this.historyTicks = history;
+        this.historyMask = history - 1;
+
         // Initialize the buff
-        for(int i = 0; i < 5; i++){
-            ServerBuff buff = new ServerBuff(0,0,40);
-            buff.relocate(MAP_WIDTH,MAP_HEIGHT);
-            buffs.add(buff);
-            buffs.get(i).visible = true;
+        for(int i = 0; i < buffCount; i++){
+            ServerBuff buff = new ServerBuff(0,0,40, rng);
+            placeBuff(buff);
+            buff.visible = true;
+            buffs.put(i, buff);
         }
     }
 
+    public long getSeed() {
+        return seed;
+    }
+
+    public int getBuffCount() {
+        return buffs.size();
+    }
+
+    public long getTick() {
+        return tick;
+    }
+
+    public int getTickRate() {
+        return tickRate;
+    }
+
+    public ArenaMap getMap() {
+        return map;
+    }
+
+    /**
+     * Start recording every applied input. The recorder must have been
+     * created with this logic's seed before the first update().
+     */
+    public void setInputRecorder(InputRecorder recorder) {
+        this.recorder = recorder;
+    }
+
+    public void setStatsListener(StatsListener statsListener) {
+        this.statsListener = statsListener;
+    }
+
+    /**
+     * Report the play time of everyone still logged in, e.g. when the
+     * server stops.
+     */
+    public void closeSessions() {
+        for (int n = 0; n < players.size(); n++) endSession(players.at(n));
+    }
+
+    private void endSession(Player p) {
+        if (statsListener == null || !usernames.contains(p.username)) return;
+        statsListener.onSessionEnd(p.username, (tick - p.loginTick) * 1000 / tickRate);
+        p.loginTick = tick;
+    }
+
+    private String statsName(Player p) {
+        return usernames.contains(p.username) ? p.username : null;
+    }
+
+    /**
+     * Like the recorder, but for live consumers (LockstepRelay).
+     */
+    public void setInputListener(InputListener inputListener) {
+        this.inputListener = inputListener;
+    }
+
+    /**
+     * Run the heavy parts of each tick on 'pool' (null: all on the
+     * calling thread). Results don't depend on it.
+     */
+    public void setTickPool(ForkJoinPool pool) {
+        this.tickPool = pool;
+        int stripes = pool == null ? 0 : Math.min(playerGrid.getRows(), pool.getParallelism() * 2);
+        partitions = new Partition[stripes];
+        for (int i = 0; i < stripes; i++) partitions[i] = new Partition();
+    }
+
+    public void setLoginListener(LoginListener loginListener) {
+        this.loginListener = loginListener;
+    }
+
+    private long msToTicks(long ms) {
+        return (ms * tickRate + 999) / 1000;
+    }
+
     /**
      * Called when a new player joins the server.
+     * Safe to call from any thread; takes effect on the next tick.
      */
     public void addPlayer(int playerId) {
+        queue(InputEvent.join(playerId));
+    }
+
+    public void removePlayer(int playerId) {
+        queue(InputEvent.leave(playerId));
+    }
+
+    /**
+     * The server receives a Command (WASD, shooting, turret angle)
+     * and applies it to the appropriate player for processing
+     * in the next update() call.
+     */
+    public void handleCommand(int playerId, Command cmd) {
+        queue(InputEvent.command(playerId, cmd));
+    }
+
+    /**
+     * Cap the bullets each player may have in flight (0 lifts the cap),
+     * from the next tick. An input like any other, so replays and
+     * lockstep peers see the same shots.
+     */
+    public void setBulletCap(int limit) {
+        queue(InputEvent.bulletCap(limit));
+    }
+
+    /**
+     * The answer is delivered to the LoginListener during the next tick.
+     */
+    public void handleLoginAttempt(int playerId, LoginAttempt loginAttempt){
+        queue(InputEvent.login(playerId, loginAttempt.username));
+    }
+
+    /**
+     * Jump the clock 'ticks' ahead at the start of the next tick, over
+     * time an idle arena slept through (see idleUntil). Recorded like an
+     * input, so replays and lockstep peers make the same jump.
+     */
+    public void skipIdle(int ticks) {
+        queue(InputEvent.idleSkip(ticks));
+    }
+
+    /**
+     * Called whenever an input is queued, from the queueing thread; lets
+     * a hibernating game loop wake up at once.
+     */
+    public void setWakeListener(Runnable wakeListener) {
+        this.wakeListener = wakeListener;
+    }
+
+    private void queue(InputEvent e) {
+        pendingInputs.add(e);
+        Runnable wake = wakeListener;
+        if (wake != null) wake.run();
+    }
+
+    /**
+     * -1 if the arena needs ticking (a tank alive, a bullet in flight or
+     * inputs waiting); otherwise nothing moves, and this is the tick at
+     * which the next timer runs out (Long.MAX_VALUE if none), so the
+     * ticks until then can be skipped. Game thread.
+     */
+    public long idleUntil() {
+        if (bullets.size() > 0 || !pendingInputs.isEmpty()) return -1;
+        long due = Long.MAX_VALUE;
+        for (int n = 0; n < players.size(); n++) {
+            Player p = players.at(n);
+            if (!p.dead) return -1;
+            due = Math.min(due, Math.min(p.respawnTick, p.nextModifierExpiry));
+        }
+        for (int i = 0; i < buffs.size(); i++) {
+            ServerBuff buff = buffs.at(i);
+            if (!buff.visible) due = Math.min(due, buff.respawnTick);
+        }
+        return due;
+    }
+
+    private void applyInputs() {
+        // A skip moves the clock after the whole batch, so every input in
+        // it is recorded at the tick it was applied on
+        long skip = 0;
+        InputEvent e;
+        while ((e = pendingInputs.poll()) != null) {
+            if (recorder != null) recorder.record(tick, e);
+            if (inputListener != null) inputListener.onInput(tick, e);
+            switch (e.type) {
+                case JOIN:
+                    applyJoin(e.playerId);
+                    break;
+                case LEAVE:
+                    applyLeave(e.playerId);
+                    break;
+                case LOGIN:
+                    applyLogin(e.playerId, e.username);
+                    break;
+                case BULLET_CAP:
+                    bulletCap = e.amount;
+                    break;
+                case IDLE_SKIP:
+                    skip += e.amount;
+                    break;
+                case COMMAND:
+                    Player p = players.get(e.playerId);
+                    if (p == null) break;
+                    p.command = e.command;
+                    // How far behind us the snapshot this client was looking at is
+                    if (e.command.ackTick > 0) {
+                        p.rewindTicks = (int) Math.max(0, Math.min(historyTicks - 2, tick - e.command.ackTick));
+                    }
+                    break;
+            }
+        }
+        if (skip > 0) {
+            tick += skip;
+            // The history rings are indexed by tick: slots from before the
+            // jump would line up with ticks that never happened, e.g. an
+            // alive radius from before a death. Nothing moved while idle, so
+            // everyone's present state is their whole history.
+            for (int n = 0; n < players.size(); n++) {
+                recordHistory(players.at(n), true);
+            }
+        }
+    }
+
+    private void applyJoin(int playerId) {
+        if (players.contains(playerId)) return;
         Player p = new Player();
         p.playerId = playerId;
         p.x = 100;
@@ -44,9 +371,16 @@ public class GameLogic {
         p.tubeWidth = p.defaultTubeWidth = 40;
         p.tubeHeight = p.defaultTubeHeight = 15;
         p.health = 100;
+        if (map.overlaps(p.x, p.y, p.width, p.height)) {
+            placeRandomly(p);
+        }
+        p.historyX = new int[historyTicks];
+        p.historyY = new int[historyTicks];
+        p.historyR = new int[historyTicks];
+        recordHistory(p, true);
 
         // So the player can shoot immediately
-        p.lastShotTime = 0;
+        p.lastShotTime = Long.MIN_VALUE / 2;
 
         // Alive by default
         p.dead = false;
@@ -54,62 +388,113 @@ public class GameLogic {
         players.put(playerId, p);
     }
 
-    public void removePlayer(int playerId) {
-        usernames.remove(players.get(playerId).username);
-        players.remove(playerId);
-    }
-
-    /**
-     * The server receives a Command (WASD, shooting, turret angle)
-     * and applies it to the appropriate player for processing
-     * in the next update() call.
-     */
-    public void handleCommand(int playerId, Command cmd) {
-        Player p = players.get(playerId);
+    private void applyLeave(int playerId) {
+        Player p = players.remove(playerId);
         if (p == null) return;
-        p.command = cmd;
+        endSession(p);
+        usernames.remove(p.username);
+        // Its bullets would have no owner to look up multipliers from
+        for (int i = bullets.size() - 1; i >= 0; i--) {
+            if (bullets.owner[i] == playerId) bullets.removeAt(i);
+        }
     }
 
-    public boolean handleLoginAttempt(int playerId, LoginAttempt loginAttempt){
-        boolean answer = !usernames.contains(loginAttempt.username);
+    private void applyLogin(int playerId, String username) {
+        Player p = players.get(playerId);
+        boolean answer = p != null && !usernames.contains(username);
         if(answer) {
-            usernames.add(loginAttempt.username);
-            players.get(playerId).username = loginAttempt.username;
+            usernames.add(username);
+            p.username = username;
+            p.loginTick = tick;
+            Checkpoint.PlayerState saved = restoredPlayers.remove(username);
+            if (saved != null) adopt(p, saved);
         }
-        return answer;
+        if (loginListener != null) loginListener.onLoginResult(playerId, username, answer);
     }
 
     /**
      * Called ~60 times per second by the server's game loop.
-     * Updates players, bullets, collisions, etc.
+     * Applies queued inputs, then updates players, bullets, collisions, etc.
      */
     public void update() {
+        applyInputs();
+        updateTimers();
         updatePlayers();
+        indexChunks();
         updateBullets();
         checkBuffCollisions();  // check if a player collides with the buff
+        tick++;
+
+        // Slot 'tick' now holds exactly what buildGameState() sends for this tick
+        for (int n = 0; n < players.size(); n++) {
+            Player p = players.at(n);
+            recordHistory(p, false);
+        }
     }
 
-    private void updatePlayers() {
-        for (Player p : players.values()) {
-            if (p.dead) {
-                // skip movement, shooting, etc. if they're "dead"
-                continue;
+    /**
+     * Store p's current hit circle in the history ring (or in every slot,
+     * for a player that just joined). A radius of 0 marks "dead then";
+     * a live tank is at least 1 however small it is.
+     */
+    private void recordHistory(Player p, boolean fillAll) {
+        int cx = p.x + p.width / 2;
+        int cy = p.y + p.height / 2;
+        int r = p.dead ? 0 : Math.max(1, p.width / 2);
+        int from = fillAll ? 0 : (int) (tick & historyMask);
+        int to = fillAll ? historyTicks : from + 1;
+        for (int i = from; i < to; i++) {
+            p.historyX[i] = cx;
+            p.historyY[i] = cy;
+            p.historyR[i] = r;
+        }
+    }
+
+    /**
+     * Expires buff modifiers and respawns players and buffs whose
+     * timers ran out this tick.
+     */
+    private void updateTimers() {
+        for (int n = 0; n < players.size(); n++) {
+            Player p = players.at(n);
+            expireModifiers(p);
+            if (p.dead && tick >= p.respawnTick) {
+                // Respawn at random location within the same top/bottom margins
+                placeRandomly(p);
+
+                p.health = 100;
+                p.dead = false;
             }
+        }
+        for (int i = 0; i < buffs.size(); i++) {
+            ServerBuff buff = buffs.at(i);
+            if (!buff.visible && tick >= buff.respawnTick) {
+                placeBuff(buff);
+                buff.setRandomBuffType(rng);
+            }
+        }
+    }
 
-            Command cmd = p.command;
-            if (cmd == null) continue;
+    private void updatePlayers() {
+        int count = players.size();
+        if (runParallel(count)) {
+            for (int n = 0; n < count; n++) stripeKeys[n] = stripeOf(players.at(n).y);
+            bucketByStripe(count);
+            forEachPartition(part -> {
+                for (int k = part.from; k < part.to; k++) movePlayer(players.at(partitionOrder[k]), part.stack);
+            });
+        } else {
+            for (int n = 0; n < count; n++) movePlayer(players.at(n), serial.stack);
+        }
 
-            // Movement
-            int speed = (int)(5 * p.speedMultiplier);
-            if (cmd.moveUp)    p.y -= speed;
-            if (cmd.moveDown)  p.y += speed;
-            if (cmd.moveLeft)  p.x -= speed;
-            if (cmd.moveRight) p.x += speed;
+        if (bulletCap > 0) countBulletsInFlight();
 
-            // Clamp X: can't leave left or right edges
-            p.x = Math.max(0, Math.min(MAP_WIDTH - p.width, p.x));
-            // Clamp Y: can't go above TOP_MARGIN or below (MAP_HEIGHT - BOTTOM_MARGIN)
-            p.y = Math.max(TOP_MARGIN, Math.min(MAP_HEIGHT - BOTTOM_MARGIN - p.height, p.y));
+        // Turrets and shooting in registry order, so bullets get the same
+        // handles and slots however the movement ran
+        for (int n = 0; n < count; n++) {
+            Player p = players.at(n);
+            Command cmd = p.command;
+            if (p.dead || cmd == null) continue;
 
             // Update turret angle
             p.turretAngle = cmd.turretAngle;
@@ -123,116 +508,382 @@ public class GameLogic {
         }
     }
 
+    /**
+     * Moves p by its command. Only touches p, so players can be moved in
+     * parallel, each thread with its own BVH 'stack'.
+     */
+    private void movePlayer(Player p, int[] stack) {
+        if (p.dead) {
+            // skip movement, shooting, etc. if they're "dead"
+            return;
+        }
+
+        Command cmd = p.command;
+        if (cmd == null) return;
+
+        // Movement, one axis at a time so tanks slide along walls. The
+        // step is worked out in sub-pixels and what doesn't make a whole
+        // pixel carries over, so the speed holds at any tick rate.
+        int speed = 0;
+        if (cmd.moveUp || cmd.moveDown || cmd.moveLeft || cmd.moveRight) {
+            int step = (int) ((TANK_SPEED << BulletStore.SUBPIXEL_BITS) * p.speedMultiplier / tickRate)
+                    + p.moveCarry;
+            speed = step >> BulletStore.SUBPIXEL_BITS;
+            p.moveCarry = step & ((1 << BulletStore.SUBPIXEL_BITS) - 1);
+        }
+        int dx = 0, dy = 0;
+        if (cmd.moveUp)    dy -= speed;
+        if (cmd.moveDown)  dy += speed;
+        if (cmd.moveLeft)  dx -= speed;
+        if (cmd.moveRight) dx += speed;
+
+        if (dx != 0) {
+            int oldX = p.x;
+            // Clamp X: can't leave left or right edges
+            p.x = Math.max(0, Math.min(mapWidth - p.width, p.x + dx));
+            int wall = map.firstOverlap(p.x, p.y, p.width, p.height, stack);
+            if (wall >= 0) {
+                // Stop flush against the wall, or stay put if that doesn't fit either
+                p.x = dx > 0 ? map.wallX(wall) - p.width : map.wallX(wall) + map.wallWidth(wall);
+                if (map.firstOverlap(p.x, p.y, p.width, p.height, stack) >= 0) p.x = oldX;
+            }
+        }
+        if (dy != 0) {
+            int oldY = p.y;
+            // Clamp Y: can't go above TOP_MARGIN or below (mapHeight - BOTTOM_MARGIN)
+            p.y = Math.max(TOP_MARGIN, Math.min(mapHeight - BOTTOM_MARGIN - p.height, p.y + dy));
+            int wall = map.firstOverlap(p.x, p.y, p.width, p.height, stack);
+            if (wall >= 0) {
+                p.y = dy > 0 ? map.wallY(wall) - p.height : map.wallY(wall) + map.wallHeight(wall);
+                if (map.firstOverlap(p.x, p.y, p.width, p.height, stack) >= 0) p.y = oldY;
+            }
+        }
+    }
+
+    /**
+     * Fill in each player's bulletsInFlight, for the bullet cap.
+     */
+    private void countBulletsInFlight() {
+        for (int n = 0; n < players.size(); n++) players.at(n).bulletsInFlight = 0;
+        for (int i = 0; i < bullets.size(); i++) {
+            Player owner = players.get(bullets.owner[i]);
+            if (owner != null) owner.bulletsInFlight++;
+        }
+    }
+
     /**
      * Attempt to spawn a bullet from player p if cooldown has passed.
      */
     private void spawnBullet(Player p) {
-        long now = System.currentTimeMillis();
+        long now = tick * 1000 / tickRate;
         // 250 ms = 0.25s
         if (now - p.lastShotTime < 250 / p.reloadSpeedMultiplier) {
             return; // too soon
         }
+        if (bulletCap > 0 && p.bulletsInFlight >= bulletCap) return;
         p.lastShotTime = now;
+        p.bulletsInFlight++;
 
         int centerX = p.x + p.width / 2;
         int centerY = p.y + p.height / 2;
         double angle = p.turretAngle;
 
-        int bulletStartX = (int) (centerX + Math.cos(angle) * p.tubeWidth);
-        int bulletStartY = (int) (centerY + Math.sin(angle) * p.tubeWidth);
+        // StrictMath: lockstep peers on other JVMs/CPUs must get the same bits
+        int bulletStartX = (int) (centerX + StrictMath.cos(angle) * p.tubeWidth);
+        int bulletStartY = (int) (centerY + StrictMath.sin(angle) * p.tubeWidth);
 
-        int speed = 15;
+        // Sub-pixels per tick, so the speed holds at any tick rate
+        int speed = (BULLET_SPEED << BulletStore.SUBPIXEL_BITS) / tickRate;
         int diameter = 12;
 
-        // Note the 'ownerId' param so we know who fired it
-        bullets.add(new ServerBullet(bulletStartX, bulletStartY, angle, speed, diameter, p.playerId));
+        // Note the owner so we know who fired it
+        bullets.add(takeBulletId(), bulletStartX, bulletStartY,
+                (int) (StrictMath.cos(angle) * speed), (int) (StrictMath.sin(angle) * speed), diameter, p.playerId);
     }
 
-    private void updateBullets() {
-        // We'll move bullets AND check collisions with players in a single pass
-        Iterator<ServerBullet> it = bullets.iterator();
-        while (it.hasNext()) {
-            ServerBullet b = it.next();
-            b.move();
-
-            // Check if out of bounds
-            if (b.x < 0 || b.x > MAP_WIDTH || b.y < 0 || b.y > MAP_HEIGHT) {
-                it.remove();
-                continue;
+    /**
+     * A bullet id not in use. Ids count up and wrap from Integer.MAX_VALUE
+     * back to 0, never reaching IntIndexMap's reserved Integer.MIN_VALUE;
+     * one still in flight after a wrap is skipped.
+     */
+    private int takeBulletId() {
+        int id;
+        do {
+            id = nextBulletId;
+            nextBulletId = id == Integer.MAX_VALUE ? 0 : id + 1;
+        } while (bullets.indexOf(id) >= 0);
+        return id;
+    }
+
+    /**
+     * Buckets players and buffs by chunk and marks the chunks around
+     * every player as active for this tick.
+     */
+    private void indexChunks() {
+        playerGrid.clear();
+        Arrays.fill(activeChunks, false);
+        int cols = playerGrid.getCols(), rows = playerGrid.getRows();
+        for (int n = 0; n < players.size(); n++) {
+            Player p = players.at(n);
+            int cx = p.x + p.width / 2, cy = p.y + p.height / 2;
+            playerGrid.add(p.playerId, cx, cy);
+            int col = playerGrid.col(cx), row = playerGrid.row(cy);
+            for (int r = Math.max(0, row - ACTIVE_RADIUS); r <= Math.min(rows - 1, row + ACTIVE_RADIUS); r++) {
+                for (int c = Math.max(0, col - ACTIVE_RADIUS); c <= Math.min(cols - 1, col + ACTIVE_RADIUS); c++) {
+                    activeChunks[r * cols + c] = true;
+                }
             }
+        }
+        buffGrid.clear();
+        for (int i = 0; i < buffs.size(); i++) {
+            ServerBuff buff = buffs.at(i);
+            if (buff.visible) buffGrid.add(i, buff.x + buff.diameter / 2, buff.y + buff.diameter / 2);
+        }
+    }
 
-            // Now check collisions with players
-            boolean bulletRemoved = false;
-            for (Player p : players.values()) {
-                if (p.dead) continue; // can't hit dead players
-                // approximate a circle for the tank
-                int centerX = p.x + p.width / 2;
-                int centerY = p.y + p.height / 2;
-                int radius = p.width / 2;
+    /**
+     * Moves every bullet one tick and resolves hits. Each bullet's motion
+     * is swept against each tank's motion over the same tick (where the
+     * shooter saw it), so nothing tunnels through a small tank at low
+     * tick rates. All hits are then applied in the order they happened
+     * within the tick; ties go to the older bullet, then the lower id.
+     */
+    private void updateBullets() {
+        hits.clear();
+        BulletStore b = bullets;
+        int count = b.size();
 
-                // approximate bullet as circle with radius diameter/2
-                int bulletRadius = (int)(p.bulletSizeMultiplier * b.diameter / 2);
+        // Radius follows the shooter's current bullet size buff
+        for (int i = 0; i < count; i++) {
+            b.radius[i] = (int) (players.get(b.owner[i]).bulletSizeMultiplier * b.diameter[i] / 2);
+        }
+        b.advance();
+        b.sweptBounds(HIT_QUERY_MARGIN);
+
+        if (runParallel(count)) {
+            for (int i = 0; i < count; i++) stripeKeys[i] = stripeOf(b.prevY[i]);
+            bucketByStripe(count);
+            forEachPartition(part -> {
+                for (int k = part.from; k < part.to; k++) findHits(partitionOrder[k], part, part.hits);
+            });
+            // The sort below puts them in one order whatever stripe found them
+            for (Partition part : partitions) {
+                hits.addAll(part.hits);
+                part.hits.clear();
+            }
+        } else {
+            for (int i = 0; i < count; i++) findHits(i, serial, hits);
+        }
 
-                if (circleCollision(centerX, centerY, radius,
-                        b.x + bulletRadius, b.y + bulletRadius, bulletRadius)) {
-                    // bullet hit a player
-                    if (b.ownerId != p.playerId) {
-                        // It's not their own bullet -> do damage
-                        p.health -= (int) (25 * players.get(b.ownerId).damageMultiplier);
-
-                        // remove bullet
-                        it.remove();
-                        bulletRemoved = true;
-
-                        // If health <= 0, "kill" them and respawn in 3s
-                        if (p.health <= 0) {
-                            players.get(b.ownerId).score++;
-                            p.dead = true;
-                            p.health = 0;
-                            scheduleRespawn(p, 3000);
-                        }
-                    }
-                    // If it's their own bullet, do nothing
-                    break;
+        if (!hits.isEmpty()) {
+            hits.sort(BulletHit.ORDER);
+            for (BulletHit hit : hits) {
+                int i = hit.bullet;
+                Player p = players.get(hit.playerId);
+                if (b.spent[i] || p.dead) continue; // an earlier hit this tick got there first
+
+                // It's not their own bullet -> do damage
+                Player shooter = players.get(b.owner[i]);
+                int damage = (int) (25 * shooter.damageMultiplier);
+                p.health -= damage;
+                b.spent[i] = true;
+                String shooterName = statsListener != null ? statsName(shooter) : null;
+                if (shooterName != null) statsListener.onDamage(shooterName, damage);
+
+                // If health <= 0, "kill" them and respawn in 3s
+                if (p.health <= 0) {
+                    shooter.score++;
+                    p.dead = true;
+                    p.health = 0;
+                    scheduleRespawn(p, 3000);
+                    if (statsListener != null) statsListener.onKill(shooterName, statsName(p));
                 }
             }
-            if (bulletRemoved) {
-                // don't continue checking collisions for this bullet
-                continue;
+        }
+
+        // Spent bullets, ones that hit a wall, left the map or left every
+        // player's surroundings
+        b.markOutside(mapWidth, mapHeight);
+        for (int i = count - 1; i >= 0; i--) {
+            if (b.spent[i] || b.blocked[i] || !activeChunks[playerGrid.chunkAt(b.x[i], b.y[i])]) {
+                b.removeAt(i);
+            }
+        }
+    }
+
+    /**
+     * Sweeps bullet i against the walls and nearby tanks and adds the
+     * tank hits to 'out'. Writes nothing shared but bullet i's own flag,
+     * so bullets can be searched in parallel, one Partition per thread.
+     */
+    private void findHits(int i, Partition part, List<BulletHit> out) {
+        BulletStore b = bullets;
+        Player shooter = players.get(b.owner[i]);
+        // approximate bullet as circle with radius diameter/2
+        int bulletRadius = b.radius[i];
+        double startX = b.prevX[i] + bulletRadius, startY = b.prevY[i] + bulletRadius;
+        double dx = b.x[i] - b.prevX[i], dy = b.y[i] - b.prevY[i];
+
+        // A wall in the way: only tanks hit before it count
+        double wallT = map.sweepCircle(startX, startY, dx, dy, bulletRadius, part.stack);
+        if (wallT >= 0) b.blocked[i] = true;
+
+        // Tanks where the shooter saw them, at the start and end of the
+        // tick. Slot t holds what snapshot t showed and this update makes
+        // tick + 1, so the sweep runs from slot tick - rewind to the one
+        // after; with no rewind that one isn't recorded yet: the tanks
+        // are there now.
+        int rewind = shooter.rewindTicks;
+        int fromSlot = (int) ((tick - rewind) & historyMask);
+        int toSlot = (fromSlot + 1) & historyMask;
+
+        // Only tanks in the chunks this bullet's path crosses
+        int found = playerGrid.query(b.minX[i], b.minY[i], b.maxX[i], b.maxY[i], part.nearby);
+        for (int k = 0; k < found; k++) {
+            Player p = players.get(part.nearby.get(k));
+            if (p.dead || p.playerId == b.owner[i]) continue; // can't hit dead players or yourself
+            int toX, toY, radius;
+            if (rewind == 0) {
+                toX = p.x + p.width / 2;
+                toY = p.y + p.height / 2;
+                radius = Math.max(1, p.width / 2);
+            } else {
+                toX = p.historyX[toSlot];
+                toY = p.historyY[toSlot];
+                radius = p.historyR[toSlot];
+                if (radius == 0) continue; // wasn't alive back then
+            }
+
+            // A tank that just respawned didn't travel from where it died
+            boolean moved = p.historyR[fromSlot] != 0;
+            int fromX = moved ? p.historyX[fromSlot] : toX;
+            int fromY = moved ? p.historyY[fromSlot] : toY;
+            double t = sweepCircles(startX - fromX, startY - fromY,
+                    dx - (toX - fromX), dy - (toY - fromY),
+                    radius + bulletRadius);
+            if (t >= 0 && (wallT < 0 || t < wallT)) out.add(new BulletHit(t, i, p.playerId));
+        }
+    }
+
+    private boolean runParallel(int work) {
+        if (tickPool == null || work < MIN_PARALLEL_WORK) return false;
+        if (stripeKeys.length < work) {
+            stripeKeys = new int[work * 2];
+            partitionOrder = new int[work * 2];
+        }
+        return true;
+    }
+
+    private int stripeOf(int y) {
+        return playerGrid.row(y) * partitions.length / playerGrid.getRows();
+    }
+
+    /**
+     * Groups indices 0 .. count-1 by their stripeKeys into partitionOrder
+     * and hands each partition its range. Keeps index order within a
+     * stripe.
+     */
+    private void bucketByStripe(int count) {
+        for (Partition part : partitions) part.to = 0;
+        for (int i = 0; i < count; i++) partitions[stripeKeys[i]].to++;
+        int start = 0;
+        for (Partition part : partitions) {
+            part.from = start;
+            start += part.to;
+            part.to = part.from;
+        }
+        for (int i = 0; i < count; i++) partitionOrder[partitions[stripeKeys[i]].to++] = i;
+    }
+
+    /**
+     * Runs 'work' for every partition on the tick pool and waits for all.
+     */
+    private void forEachPartition(Consumer<Partition> work) {
+        try {
+            for (Partition part : partitions) {
+                if (part.to > part.from) partitionTasks.add(tickPool.submit(() -> work.accept(part)));
             }
+            for (ForkJoinTask<?> task : partitionTasks) task.join();
+        } finally {
+            partitionTasks.clear();
         }
     }
 
     /**
-     * Start a background thread that waits 'delayMs' and then respawns
-     * this player with full health at a random location.
+     * Earliest time t in [0, 1] at which a circle starting (rx, ry) away
+     * from another and moving (vx, vy) relative to it over the tick comes
+     * closer than 'radii', or -1 if it doesn't.
+     */
+    private static double sweepCircles(double rx, double ry, double vx, double vy, int radii) {
+        double c = rx * rx + ry * ry - (double) radii * radii;
+        if (c < 0) return 0; // already overlapping
+        double a = vx * vx + vy * vy;
+        if (a == 0) return -1;
+        double b = rx * vx + ry * vy;
+        if (b >= 0) return -1; // moving apart
+        double disc = b * b - a * c;
+        if (disc < 0) return -1;
+        double t = (-b - Math.sqrt(disc)) / a;
+        return t <= 1 ? t : -1;
+    }
+
+    /**
+     * Respawn this player with full health at a random location
+     * once 'delayMs' worth of ticks has passed (see updateTimers).
      */
     private void scheduleRespawn(Player p, int delayMs) {
-        new Thread(() -> {
-            try {
-                Thread.sleep(delayMs);
-            } catch (InterruptedException ignored) {}
+        p.respawnTick = tick + msToTicks(delayMs);
+    }
 
-            // Respawn at random location within the same top/bottom margins
+    /**
+     * Put p somewhere random that isn't inside a wall.
+     */
+    private void placeRandomly(Player p) {
+        for (int i = 0; i < MAX_PLACEMENT_TRIES; i++) {
             p.x = getRandomX(p.width);
             p.y = getRandomY(p.height);
+            if (!map.overlaps(p.x, p.y, p.width, p.height)) return;
+        }
+    }
 
-            p.health = 100;
-            p.dead = false;
-        }).start();
+    private void placeBuff(ServerBuff buff) {
+        for (int i = 0; i < MAX_PLACEMENT_TRIES; i++) {
+            buff.relocate(mapWidth, mapHeight, rng);
+            if (!map.overlaps(buff.x, buff.y, buff.diameter, buff.diameter)) return;
+        }
+    }
+
+    /**
+     * Move p out of any wall it ended up in (it grew back next to one)
+     * along the shortest way out.
+     */
+    private void pushOutOfWalls(Player p) {
+        for (int i = 0; i < 4; i++) {
+            int wall = map.firstOverlap(p.x, p.y, p.width, p.height);
+            if (wall < 0) return;
+            int toLeft = p.x + p.width - map.wallX(wall);
+            int toRight = map.wallX(wall) + map.wallWidth(wall) - p.x;
+            int toTop = p.y + p.height - map.wallY(wall);
+            int toBottom = map.wallY(wall) + map.wallHeight(wall) - p.y;
+            int least = Math.min(Math.min(toLeft, toRight), Math.min(toTop, toBottom));
+            if (least == toLeft) p.x -= toLeft;
+            else if (least == toRight) p.x += toRight;
+            else if (least == toTop) p.y -= toTop;
+            else p.y += toBottom;
+        }
     }
 
     private int getRandomX(int playerWidth) {
-        int maxX = MAP_WIDTH - playerWidth;
+        int maxX = mapWidth - playerWidth;
         if (maxX < 0) return 0;
-        return (int) (Math.random() * (maxX + 1));
+        return rng.nextInt(maxX + 1);
     }
 
     private int getRandomY(int playerHeight) {
         int minY = TOP_MARGIN;
-        int maxY = MAP_HEIGHT - BOTTOM_MARGIN - playerHeight;
+        int maxY = mapHeight - BOTTOM_MARGIN - playerHeight;
         if (maxY < minY) return minY;
-        return minY + (int) (Math.random() * (maxY - minY + 1));
+        return minY + rng.nextInt(maxY - minY + 1);
     }
 
     /**
@@ -241,15 +892,24 @@ public class GameLogic {
     private void checkBuffCollisions() {
         if (buffs.isEmpty()) return;
 
-        for (Player p : players.values()) {
+        for (int n = 0; n < players.size(); n++) {
+            Player p = players.at(n);
             if (p.dead) continue; // dead players can't pick up buff
 
-            for(ServerBuff buff : buffs){
-                if(!buff.visible) continue;
+            int centerX = p.x + p.width/2;
+            int centerY = p.y + p.height/2;
+            int radius = p.width/2;
 
-                int centerX = p.x + p.width/2;
-                int centerY = p.y + p.height/2;
-                int radius = p.width/2;
+            // Buffs in nearby chunks, in list order like a full scan would
+            int found = buffGrid.query(centerX - radius - BUFF_QUERY_MARGIN, centerY - radius - BUFF_QUERY_MARGIN,
+                    centerX + radius + BUFF_QUERY_MARGIN, centerY + radius + BUFF_QUERY_MARGIN);
+            nearbyBuffs = found > nearbyBuffs.length ? new int[found] : nearbyBuffs;
+            for (int k = 0; k < found; k++) nearbyBuffs[k] = buffGrid.result(k);
+            Arrays.sort(nearbyBuffs, 0, found);
+
+            for (int k = 0; k < found; k++) {
+                ServerBuff buff = buffs.at(nearbyBuffs[k]);
+                if(!buff.visible) continue;
 
                 int buffCenterX = buff.x + buff.diameter/2;
                 int buffCenterY = buff.y + buff.diameter/2;
@@ -261,20 +921,96 @@ public class GameLogic {
                     buff.visible = false;
 
                     // respawn buff after random time
-                    new Thread(() -> {
-                        try {
-                            Thread.sleep(5000 + (int)(Math.random()*5000));
-                            buff.relocate(MAP_WIDTH, MAP_HEIGHT);
-                            buff.setRandomBuffType();
-                        } catch (InterruptedException ignored) {}
-                    }).start();
-
-                    ServerBuff.applyBuff(p, buff.buffType);
+                    buff.respawnTick = tick + msToTicks(5000 + rng.nextInt(5000));
+
+                    applyBuff(p, buff.buffType);
                 }
             }
         }
     }
 
+    /**
+     * Push the buff's modifier onto p's stack. If the stack is full the
+     * modifier closest to expiring makes room.
+     */
+    private void applyBuff(Player p, GameState.BuffData.buffType type) {
+        BuffTable.Entry entry = BuffTable.get(type);
+        int slot = p.modifierCount;
+        if (slot == MAX_MODIFIERS) {
+            slot = 0;
+            for (int i = 1; i < MAX_MODIFIERS; i++) {
+                if (p.modifierExpiry[i] < p.modifierExpiry[slot]) slot = i;
+            }
+        } else {
+            p.modifierCount++;
+        }
+        p.modifierStat[slot] = entry.stat;
+        p.modifierFactor[slot] = entry.factor;
+        p.modifierExpiry[slot] = tick + msToTicks(entry.durationMs);
+        recomputeStats(p);
+    }
+
+    /**
+     * Drop p's modifiers that have run out, if any.
+     */
+    private void expireModifiers(Player p) {
+        if (p.modifierCount == 0 || tick < p.nextModifierExpiry) return;
+        int i = 0;
+        while (i < p.modifierCount) {
+            if (p.modifierExpiry[i] <= tick) {
+                // swap-remove with the last active modifier
+                int last = --p.modifierCount;
+                p.modifierStat[i] = p.modifierStat[last];
+                p.modifierFactor[i] = p.modifierFactor[last];
+                p.modifierExpiry[i] = p.modifierExpiry[last];
+                p.modifierStat[last] = null;
+            } else {
+                i++;
+            }
+        }
+        recomputeStats(p);
+    }
+
+    /**
+     * Rebuild p's multipliers (and size) from the modifier stack.
+     * Only called when the stack changes.
+     */
+    private void recomputeStats(Player p) {
+        double size = 1, bulletSize = 1, damage = 1, speed = 1, reloadSpeed = 1;
+        long nextExpiry = Long.MAX_VALUE;
+        for (int i = 0; i < p.modifierCount; i++) {
+            double f = p.modifierFactor[i];
+            switch (p.modifierStat[i]) {
+                case SIZE:         size *= f; break;
+                case BULLET_SIZE:  bulletSize *= f; break;
+                case DAMAGE:       damage *= f; break;
+                case SPEED:        speed *= f; break;
+                case RELOAD_SPEED: reloadSpeed *= f; break;
+            }
+            nextExpiry = Math.min(nextExpiry, p.modifierExpiry[i]);
+        }
+        size = Math.max(MIN_SIZE_MULTIPLIER, size);
+        p.bulletSizeMultiplier = bulletSize;
+        p.damageMultiplier = damage;
+        p.speedMultiplier = speed;
+        p.reloadSpeedMultiplier = reloadSpeed;
+        p.nextModifierExpiry = nextExpiry;
+
+        if (size != p.sizeMultiplier) {
+            p.sizeMultiplier = size;
+
+            p.width      = (int)(p.defaultWidth * p.sizeMultiplier);
+            p.height     = (int)(p.defaultHeight * p.sizeMultiplier);
+            p.tubeWidth  = (int)(p.defaultTubeWidth * p.sizeMultiplier);
+            p.tubeHeight = (int)(p.defaultTubeHeight * p.sizeMultiplier);
+
+            // clamp after changing size
+            pushOutOfWalls(p);
+            p.x = Math.max(0, Math.min(mapWidth - p.width, p.x));
+            p.y = Math.max(TOP_MARGIN, Math.min(mapHeight - BOTTOM_MARGIN - p.height, p.y));
+        }
+    }
+
     private boolean circleCollision(int x1, int y1, int r1, int x2, int y2, int r2) {
         int dx = x1 - x2;
         int dy = y1 - y2;
@@ -283,10 +1019,155 @@ public class GameLogic {
         return distSq < (radii*radii);
     }
 
+    /**
+     * Copy of the match state for a checkpoint; cheap enough to take on
+     * the game thread between ticks. Players that never logged in are
+     * left out, there is no name to bring them back by.
+     */
+    public Checkpoint checkpoint() {
+        Checkpoint cp = new Checkpoint();
+        cp.seed = seed;
+        cp.rngState = rng.getState();
+        cp.tick = tick;
+        cp.tickRate = tickRate;
+        cp.width = mapWidth;
+        cp.height = mapHeight;
+        cp.walls = map.getWalls();
+
+        cp.buffs = new Checkpoint.BuffState[buffs.size()];
+        for (int i = 0; i < buffs.size(); i++) {
+            ServerBuff buff = buffs.at(i);
+            Checkpoint.BuffState b = new Checkpoint.BuffState();
+            b.x = buff.x;
+            b.y = buff.y;
+            b.diameter = buff.diameter;
+            b.visible = buff.visible;
+            b.type = buff.buffType.ordinal();
+            b.respawnTick = buff.respawnTick;
+            cp.buffs[i] = b;
+        }
+
+        List<Checkpoint.PlayerState> saved = new ArrayList<>(restoredPlayers.values());
+        for (int n = 0; n < players.size(); n++) {
+            Player p = players.at(n);
+            if (!usernames.contains(p.username)) continue;
+            Checkpoint.PlayerState ps = new Checkpoint.PlayerState();
+            ps.username = p.username;
+            ps.score = p.score;
+            ps.x = p.x;
+            ps.y = p.y;
+            ps.turretAngle = p.turretAngle;
+            ps.health = p.health;
+            ps.lastShotTime = p.lastShotTime;
+            ps.dead = p.dead;
+            ps.respawnTick = p.respawnTick;
+            ps.modifierStat = new int[p.modifierCount];
+            ps.modifierFactor = Arrays.copyOf(p.modifierFactor, p.modifierCount);
+            ps.modifierExpiry = Arrays.copyOf(p.modifierExpiry, p.modifierCount);
+            for (int i = 0; i < p.modifierCount; i++) ps.modifierStat[i] = p.modifierStat[i].ordinal();
+            saved.add(ps);
+        }
+        cp.players = saved.toArray(new Checkpoint.PlayerState[0]);
+        return cp;
+    }
+
+    /**
+     * Resume the match saved in 'cp'. Its players wait, out of the arena,
+     * until someone logs in with their username.
+     */
+    public static GameLogic restore(Checkpoint cp) {
+        GameLogic logic = new GameLogic(cp.seed, cp.buffs.length, cp.tickRate,
+                new ArenaMap(cp.width, cp.height, cp.walls));
+        logic.rng.setState(cp.rngState);
+        logic.tick = cp.tick;
+        GameState.BuffData.buffType[] types = GameState.BuffData.buffType.values();
+        for (int i = 0; i < cp.buffs.length; i++) {
+            Checkpoint.BuffState b = cp.buffs[i];
+            ServerBuff buff = logic.buffs.at(i);
+            buff.x = b.x;
+            buff.y = b.y;
+            buff.diameter = b.diameter;
+            buff.visible = b.visible;
+            buff.buffType = types[b.type];
+            buff.respawnTick = b.respawnTick;
+        }
+        for (Checkpoint.PlayerState ps : cp.players) {
+            logic.restoredPlayers.put(ps.username, ps);
+        }
+        return logic;
+    }
+
+    public int getRestoredPlayerCount() {
+        return restoredPlayers.size();
+    }
+
+    /**
+     * A player logged in under the name of a checkpointed one and takes
+     * over its tank: place, score, health and buffs.
+     */
+    private void adopt(Player p, Checkpoint.PlayerState saved) {
+        BuffTable.Stat[] stats = BuffTable.Stat.values();
+        p.score = saved.score;
+        p.x = saved.x;
+        p.y = saved.y;
+        p.turretAngle = saved.turretAngle;
+        p.health = saved.health;
+        p.lastShotTime = saved.lastShotTime;
+        p.dead = saved.dead;
+        p.respawnTick = saved.respawnTick;
+        p.modifierCount = saved.modifierStat.length;
+        for (int i = 0; i < p.modifierCount; i++) {
+            p.modifierStat[i] = stats[saved.modifierStat[i]];
+            p.modifierFactor[i] = saved.modifierFactor[i];
+            p.modifierExpiry[i] = saved.modifierExpiry[i];
+        }
+        recomputeStats(p);
+        recordHistory(p, true);
+    }
+
+    /**
+     * Hash of everything one tick carries over to the next. Two logics
+     * fed the same inputs from the same seed agree on it at every tick;
+     * lockstep peers compare it with the server's to catch a desync.
+     */
+    public long stateHash() {
+        long h = mix(tick, rng.getState());
+        for (int n = 0; n < players.size(); n++) {
+            Player p = players.at(n);
+            h = mix(h, p.playerId);
+            h = mix(h, ((long) p.x << 32) | (p.y & 0xFFFFFFFFL));
+            h = mix(h, ((long) p.width << 32) | (p.height & 0xFFFFFFFFL));
+            h = mix(h, ((long) p.health << 32) | (p.score & 0xFFFFFFFFL));
+            h = mix(h, Double.doubleToLongBits(p.turretAngle));
+            h = mix(h, p.lastShotTime);
+            h = mix(h, p.dead ? p.respawnTick : -1);
+            h = mix(h, p.modifierCount);
+            h = mix(h, p.moveCarry);
+        }
+        for (int i = 0; i < bullets.size(); i++) {
+            h = mix(h, ((long) bullets.subX[i] << 32) | (bullets.subY[i] & 0xFFFFFFFFL));
+            h = mix(h, ((long) bullets.vx[i] << 32) | (bullets.vy[i] & 0xFFFFFFFFL));
+            h = mix(h, bullets.owner[i]);
+        }
+        for (int i = 0; i < buffs.size(); i++) {
+            ServerBuff buff = buffs.at(i);
+            h = mix(h, ((long) buff.x << 32) | (buff.y & 0xFFFFFFFFL));
+            h = mix(h, buff.visible ? buff.buffType.ordinal() : -1 - buff.respawnTick);
+        }
+        return h;
+    }
+
+    private static long mix(long h, long v) {
+        h = (h ^ v) * 0x9E3779B97F4A7C15L;
+        return h ^ (h >>> 29);
+    }
+
     public GameState buildGameState() {
         GameState gs = new GameState();
+        gs.tick = tick;
 
-        for (Player p : players.values()) {
+        for (int n = 0; n < players.size(); n++) {
+            Player p = players.at(n);
             GameState.PlayerData pd = new GameState.PlayerData();
             pd.playerId = p.playerId;
             pd.username = p.username;
@@ -302,24 +1183,25 @@ public class GameLogic {
             gs.players.add(pd);
         }
 
-        for (ServerBullet b : bullets) {
+        for (int i = 0; i < bullets.size(); i++) {
             GameState.BulletData bd = new GameState.BulletData();
-            bd.x = b.x;
-            bd.y = b.y;
-            bd.diameter = (int)(b.diameter * players.get(b.ownerId).bulletSizeMultiplier);
+            bd.x = bullets.x[i];
+            bd.y = bullets.y[i];
+            bd.diameter = (int)(bullets.diameter[i] * players.get(bullets.owner[i]).bulletSizeMultiplier);
             gs.bullets.add(bd);
         }
 
         List<GameState.BuffData> buffDatas = new ArrayList<>();
 
-        for(ServerBuff buff : buffs){
+        for(int i = 0; i < buffs.size(); i++){
+            ServerBuff buff = buffs.at(i);
             if(!buff.visible)continue;
             GameState.BuffData buffData = new GameState.BuffData();
 
             buffData.x = buff.x;
             buffData.y = buff.y;
             buffData.diameter = buff.diameter;
-            buffData.color = colorToHex(buff.color);
+            buffData.color = BuffTable.get(buff.buffType).colorHex;
             buffData.visible = buff.visible;
 
             buffDatas.add(buffData);
@@ -329,195 +1211,57 @@ public class GameLogic {
         return gs;
     }
 
-    private static final Color[] BUFF_COLORS = {
-            new Color(174, 195, 183),   // Size decrease
-            new Color(224, 108, 117),   // Damage increase
-            new Color(139, 48, 48),     // Bullet size increase
-            new Color(106, 192, 153),   // Speed increase
-            new Color(95, 158, 160)     // Reload speed increase
-    };
-    private static final Random RNG = new Random();
-
-    private static String colorToHex(Color c) {
-        return String.format("#%02X%02X%02X", c.getRed(), c.getGreen(), c.getBlue());
-    }
-
     private static class ServerBuff {
         public int x, y, diameter;
-        public Color color;
         public boolean visible = true;
         public GameState.BuffData.buffType buffType;
+        public long respawnTick;
 
-        public ServerBuff(int x, int y, int diameter) {
+        public ServerBuff(int x, int y, int diameter, SeededRandom rng) {
             this.x = x;
             this.y = y;
             this.diameter = diameter;
-            setRandomBuffType();
+            setRandomBuffType(rng);
         }
 
-        public void setRandomBuffType(){
+        public void setRandomBuffType(SeededRandom rng){
             GameState.BuffData.buffType[] allEnums = GameState.BuffData.buffType.values();
-            Random random = new Random();
-            buffType = allEnums[random.nextInt(allEnums.length)];
-            switch (buffType){
-                case sizeDecrease:
-                    color = BUFF_COLORS[0];
-                    break;
-                case speedIncrease:
-                    color = BUFF_COLORS[3];
-                    break;
-                case bulletIncrease:
-                    color = BUFF_COLORS[2];
-                    break;
-                case damageIncrease:
-                    color = BUFF_COLORS[1];
-                    break;
-                case reloadSpeedIncrease:
-                    color = BUFF_COLORS[4];
-                    break;
-            }
-        }
-
-        public static void applyBuff(Player p, GameState.BuffData.buffType buff){
-            switch (buff){
-                case sizeDecrease:
-                    buff_sizeDecrease(p);
-                    break;
-                case speedIncrease:
-                    buff_speedIncrease(p);
-                    break;
-                case bulletIncrease:
-                    buff_bulletIncrease(p);
-                    break;
-                case damageIncrease:
-                    buff_damageIncrease(p);
-                    break;
-                case reloadSpeedIncrease:
-                    buff_reloadSpeedIncrease(p);
-                    break;
-            }
-        }
-        public static void buff_sizeDecrease(Player p){
-            // shrink by factor 0.5 for 10 seconds
-            final double factor = 0.5;
-            final long effectTime = 10000;
-
-            p.sizeMultiplier *= factor;
-
-            p.width      = (int)(p.defaultWidth * p.sizeMultiplier);
-            p.height     = (int)(p.defaultHeight * p.sizeMultiplier);
-            p.tubeWidth  = (int)(p.defaultTubeWidth * p.sizeMultiplier);
-            p.tubeHeight = (int)(p.defaultTubeHeight * p.sizeMultiplier);
-
-            // clamp after changing size
-            p.x = Math.max(0, Math.min(MAP_WIDTH - p.width, p.x));
-            p.y = Math.max(TOP_MARGIN, Math.min(MAP_HEIGHT - BOTTOM_MARGIN - p.height, p.y));
-
-            // revert after 10s
-            new Thread(() -> {
-                try {
-                    Thread.sleep(effectTime);
-                } catch (InterruptedException ignored) {}
-
-                p.sizeMultiplier /= factor;
-
-                p.width      = (int)(p.defaultWidth * p.sizeMultiplier);
-                p.height     = (int)(p.defaultHeight * p.sizeMultiplier);
-                p.tubeWidth  = (int)(p.defaultTubeWidth * p.sizeMultiplier);
-                p.tubeHeight = (int)(p.defaultTubeHeight * p.sizeMultiplier);
-
-                // clamp
-                p.x = Math.max(0, Math.min(MAP_WIDTH - p.width, p.x));
-                p.y = Math.max(TOP_MARGIN, Math.min(MAP_HEIGHT - BOTTOM_MARGIN - p.height, p.y));
-            }).start();
-        }
-        public static void buff_bulletIncrease(Player p){
-            double factor = 2;
-            long effectTime = 10000;
-
-            p.bulletSizeMultiplier *= factor;
-
-            // revert after 10s
-            new Thread(() -> {
-                try {
-                    Thread.sleep(effectTime);
-                } catch (InterruptedException ignored) {}
-
-                p.bulletSizeMultiplier /= factor;
-            }).start();
+            buffType = allEnums[rng.nextInt(allEnums.length)];
         }
-        public static void buff_damageIncrease(Player p){
-            double factor = 1.5;
-            long effectTime = 10000;
 
-            p.damageMultiplier *= factor;
-
-            // revert after 10s
-            new Thread(() -> {
-                try {
-                    Thread.sleep(effectTime);
-                } catch (InterruptedException ignored) {}
-
-                p.damageMultiplier /= factor;
-            }).start();
-        }
-        public static void buff_speedIncrease(Player p){
-            double factor = 1.25;
-            long effectTime = 15000;
-
-            p.speedMultiplier *= factor;
-
-            // revert after 15s
-            new Thread(() -> {
-                try {
-                    Thread.sleep(effectTime);
-                } catch (InterruptedException ignored) {}
-
-                p.speedMultiplier /= factor;
-            }).start();
-        }
-        public static void buff_reloadSpeedIncrease(Player p){
-            double factor = 2;
-            long effectTime = 20000;
-
-            p.reloadSpeedMultiplier *= factor;
-
-            // revert after 20s
-            new Thread(() -> {
-                try {
-                    Thread.sleep(effectTime);
-                } catch (InterruptedException ignored) {}
-
-                p.reloadSpeedMultiplier /= factor;
-            }).start();
-        }
-
-        public void relocate(int maxW, int maxH) {
-            x = RNG.nextInt(Math.max(1, maxW - diameter));
-            y = RNG.nextInt(Math.max(1, maxH - diameter));
+        public void relocate(int maxW, int maxH, SeededRandom rng) {
+            x = rng.nextInt(Math.max(1, maxW - diameter));
+            y = rng.nextInt(Math.max(1, maxH - diameter));
             visible = true;
         }
     }
 
-    private static class ServerBullet {
-        public int x, y;
-        public double angle;
-        public int speed;
-        public int diameter;
-        public int ownerId;
-
-        public ServerBullet(int x, int y, double angle, int speed, int diameter, int ownerId) {
-            this.x = x;
-            this.y = y;
-            this.angle = angle;
-            this.speed = speed;
-            this.diameter = diameter;
-            this.ownerId = ownerId;
-        }
+    /**
+     * Per-thread scratch of the parallel tick, and the stripe of entities
+     * it works on.
+     */
+    private static final class Partition {
+        final int[] stack = new int[ArenaMap.STACK_SIZE];
+        final ChunkGrid.Results nearby = new ChunkGrid.Results();
+        final List<BulletHit> hits = new ArrayList<>();
+        int from, to;
+    }
 
-        public void move() {
-            x += (int)(Math.cos(angle) * speed);
-            y += (int)(Math.sin(angle) * speed);
+    private static class BulletHit {
+        static final Comparator<BulletHit> ORDER = (a, b) -> {
+            if (a.t != b.t) return Double.compare(a.t, b.t);
+            if (a.bullet != b.bullet) return Integer.compare(a.bullet, b.bullet);
+            return Integer.compare(a.playerId, b.playerId);
+        };
+
+        final double t;         // fraction of the tick
+        final int bullet;       // index into 'bullets'
+        final int playerId;
+
+        BulletHit(double t, int bullet, int playerId) {
+            this.t = t;
+            this.bullet = bullet;
+            this.playerId = playerId;
         }
     }
 
@@ -526,6 +1270,8 @@ public class GameLogic {
         String username = "player";
         int score;
         int x, y;
+        // Sub-pixels of movement not yet made into a whole pixel
+        int moveCarry;
         int defaultWidth, defaultHeight;
         int defaultTubeWidth, defaultTubeHeight;
         int width, height;
@@ -541,7 +1287,24 @@ public class GameLogic {
         int health = 100;
 
         long lastShotTime;
+        // Only kept up to date while there is a bullet cap
+        int bulletsInFlight;
+        long loginTick;
         Command command;
         boolean dead;
+        long respawnTick;
+
+        // Hit circle history ring, indexed by tick & historyMask
+        int[] historyX;
+        int[] historyY;
+        int[] historyR;
+        int rewindTicks;
+
+        // Active buff modifiers, see applyBuff()
+        final BuffTable.Stat[] modifierStat = new BuffTable.Stat[MAX_MODIFIERS];
+        final double[] modifierFactor = new double[MAX_MODIFIERS];
+        final long[] modifierExpiry = new long[MAX_MODIFIERS];
+        int modifierCount;
+        long nextModifierExpiry = Long.MAX_VALUE;
     }
 }
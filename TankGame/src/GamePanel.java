@@ -1,6 +1,7 @@
 import javax.swing.*;
 import java.awt.*;
 import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -15,6 +16,27 @@ public class GamePanel extends JPanel {
     // (Optional) local player’s username field.
     private String username;
 
+    // Arena geometry from the server (sent once); until then the default arena
+    private MapData mapData;
+    private int worldWidth = ArenaMap.DEFAULT_WIDTH;
+    private int worldHeight = ArenaMap.DEFAULT_HEIGHT;
+
+    // Camera: top-left world corner of the view. The view is the whole
+    // world on small maps and follows the local tank on big ones.
+    private double camX, camY;
+
+    // Background and walls never change, so they're pre-rendered for the
+    // view plus a margin and redrawn only when the camera leaves that
+    // area or the panel is resized
+    private static final int STATIC_MARGIN = 512;
+    private BufferedImage staticLayer;
+    private int staticX, staticY, staticW, staticH;
+    private double staticScaleX, staticScaleY;
+
+    // F3 network overlay; stats may be null (e.g. spectators)
+    private ClientNetStats netStats;
+    private boolean showNetOverlay = false;
+
     public GamePanel(String username) {
         this.username = username; // only if you need to store it locally
         setFocusable(true);
@@ -29,6 +51,17 @@ public class GamePanel extends JPanel {
     }
 
     public void setGameState(GameState gs) {
+        // A trimmed snapshot left some tanks out; keep showing them as last seen
+        if (gs.omittedPlayers != null && currentState != null) {
+            for (int id : gs.omittedPlayers) {
+                for (GameState.PlayerData p : currentState.players) {
+                    if (p.playerId == id) {
+                        gs.players.add(p);
+                        break;
+                    }
+                }
+            }
+        }
         this.currentState = gs;
         repaint();
     }
@@ -37,6 +70,61 @@ public class GamePanel extends JPanel {
         return currentState;
     }
 
+    public void setMapData(MapData mapData) {
+        this.mapData = mapData;
+        this.worldWidth = mapData.width;
+        this.worldHeight = mapData.height;
+        staticLayer = null;
+        repaint();
+    }
+
+    private int viewWidth() {
+        return Math.min(worldWidth, ArenaMap.VIEW_WIDTH);
+    }
+
+    private int viewHeight() {
+        return Math.min(worldHeight, ArenaMap.VIEW_HEIGHT);
+    }
+
+    /**
+     * World coordinates of a point on the panel.
+     */
+    public double screenToWorldX(int x) {
+        return camX + x * viewWidth() / (double) getWidth();
+    }
+
+    public double screenToWorldY(int y) {
+        return camY + y * viewHeight() / (double) getHeight();
+    }
+
+    /**
+     * Center the view on the local tank, kept inside the world.
+     */
+    private void updateCamera(int viewW, int viewH) {
+        for (GameState.PlayerData p : currentState.players) {
+            if (p.playerId == localPlayerId) {
+                camX = p.x + p.width / 2.0 - viewW / 2.0;
+                camY = p.y + p.height / 2.0 - viewH / 2.0;
+                break;
+            }
+        }
+        camX = Math.max(0, Math.min(worldWidth - viewW, camX));
+        camY = Math.max(0, Math.min(worldHeight - viewH, camY));
+    }
+
+    private boolean inView(int x, int y, int w, int h, int viewW, int viewH) {
+        return x + w >= camX && x <= camX + viewW && y + h >= camY && y <= camY + viewH;
+    }
+
+    public void setNetStats(ClientNetStats netStats) {
+        this.netStats = netStats;
+    }
+
+    public void toggleNetOverlay() {
+        showNetOverlay = !showNetOverlay;
+        repaint();
+    }
+
     @Override
     protected void paintComponent(Graphics g) {
         super.paintComponent(g);
@@ -44,30 +132,39 @@ public class GamePanel extends JPanel {
 
         Graphics2D g2d = (Graphics2D) g;
 
-        // 1. Define your “virtual” game world size (change as needed)
-        final int worldWidth = 1920;
-        final int worldHeight = 1080;
+        // 1. The “virtual” view size: the world, or a screenful of a big one
+        final int viewW = viewWidth();
+        final int viewH = viewHeight();
+        updateCamera(viewW, viewH);
 
         // 2. Compute scale factors
-        double scaleX = getWidth()  / (double) worldWidth;
-        double scaleY = getHeight() / (double) worldHeight;
+        double scaleX = getWidth()  / (double) viewW;
+        double scaleY = getHeight() / (double) viewH;
+
+        // Background and walls, pre-rendered at screen scale
+        if (staticLayer == null || scaleX != staticScaleX || scaleY != staticScaleY
+                || camX < staticX || camX + viewW > staticX + staticW
+                || camY < staticY || camY + viewH > staticY + staticH) {
+            renderStaticLayer(viewW, viewH, scaleX, scaleY);
+        }
+        g2d.drawImage(staticLayer, (int) Math.round((staticX - camX) * scaleX),
+                (int) Math.round((staticY - camY) * scaleY), null);
 
         // 3. Save the original (unscaled) transform
         AffineTransform originalTransform = g2d.getTransform();
 
         // 4. Apply scaling so we can draw in “world” coordinates
         g2d.scale(scaleX, scaleY);
+        g2d.translate(-camX, -camY);
 
         // --- Draw the "scaled" game world ------------------------
 
-        // Background
-        g2d.setColor(new Color(43, 42, 42));
-        g2d.fillRect(0, 0, worldWidth, worldHeight);
-
         // Draw players (tanks)
         for (GameState.PlayerData p : currentState.players) {
             // If a player's health is 0, skip drawing it (example logic)
             if (p.health == 0) continue;
+            if (!inView(p.x - p.tubeWidth, p.y - p.tubeWidth - 15, p.width + 2 * p.tubeWidth,
+                    p.height + 2 * p.tubeWidth + 15, viewW, viewH)) continue;
 
             // Local player's color vs. others
             if (p.playerId == localPlayerId) {
@@ -107,6 +204,7 @@ public class GamePanel extends JPanel {
         if (currentState.bullets != null) {
             g2d.setColor(new Color(245, 232, 132)); // bullet color
             for (GameState.BulletData b : currentState.bullets) {
+                if (!inView(b.x, b.y, b.diameter, b.diameter, viewW, viewH)) continue;
                 g2d.fillOval(b.x, b.y, b.diameter, b.diameter);
             }
         }
@@ -133,8 +231,8 @@ public class GamePanel extends JPanel {
         for (GameState.PlayerData p : currentState.players) {
             // We rely on p.username from the server
             if (p.playerId == localPlayerId && p.username != null) {
-                int screenX = (int) (p.x * scaleX);
-                int screenY = (int) (p.y * scaleY);
+                int screenX = (int) ((p.x - camX) * scaleX);
+                int screenY = (int) ((p.y - camY) * scaleY);
                 int screenW = (int) (p.width  * scaleX);
                 int screenH = (int) (p.height * scaleY);
 
@@ -204,5 +302,80 @@ public class GamePanel extends JPanel {
             g2d.drawString(line, textXPos, textYPos);
             textYPos += lineHeight;
         }
+
+        if (showNetOverlay && netStats != null) {
+            drawNetOverlay(g2d);
+        }
+    }
+
+    private void renderStaticLayer(int viewW, int viewH, double scaleX, double scaleY) {
+        staticW = Math.min(worldWidth, viewW + 2 * STATIC_MARGIN);
+        staticH = Math.min(worldHeight, viewH + 2 * STATIC_MARGIN);
+        staticX = (int) Math.max(0, Math.min(worldWidth - staticW, camX - STATIC_MARGIN));
+        staticY = (int) Math.max(0, Math.min(worldHeight - staticH, camY - STATIC_MARGIN));
+        staticScaleX = scaleX;
+        staticScaleY = scaleY;
+
+        staticLayer = new BufferedImage(Math.max(1, (int) Math.ceil(staticW * scaleX)),
+                Math.max(1, (int) Math.ceil(staticH * scaleY)), BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = staticLayer.createGraphics();
+        g.scale(scaleX, scaleY);
+        g.translate(-staticX, -staticY);
+
+        // Background
+        g.setColor(new Color(43, 42, 42));
+        g.fillRect(staticX, staticY, staticW, staticH);
+
+        // Walls
+        if (mapData != null) {
+            g.setColor(new Color(0x41436A));
+            for (int i = 0; i + 3 < mapData.walls.length; i += 4) {
+                int x = mapData.walls[i], y = mapData.walls[i + 1];
+                int w = mapData.walls[i + 2], h = mapData.walls[i + 3];
+                if (x + w < staticX || x > staticX + staticW || y + h < staticY || y > staticY + staticH) continue;
+                g.fillRect(x, y, w, h);
+            }
+        }
+        g.dispose();
+    }
+
+    /**
+     * Network stats box in the top right corner, same look as the leaderboard.
+     */
+    private void drawNetOverlay(Graphics2D g2d) {
+        NetStats ping = netStats.getPingStats();
+        List<String> lines = new ArrayList<>();
+        lines.add("NETWORK");
+        if (ping.hasSamples()) {
+            lines.add(String.format("RTT: %.1f ms", ping.getRttMs()));
+            lines.add(String.format("Jitter: %.1f ms", ping.getJitterMs()));
+            lines.add(String.format("Clock offset: %+.1f ms", ping.getClockOffsetMs()));
+        } else {
+            lines.add("RTT: -");
+        }
+        lines.add(String.format("Snapshots: %.0f /s", netStats.getSnapshotsPerSecond()));
+        lines.add(String.format("Inbound: %.1f KB/s", netStats.getKilobytesPerSecond()));
+        lines.add("Dropped: " + netStats.getDroppedFrames());
+
+        g2d.setFont(new Font("Verdana", Font.BOLD, 14));
+        FontMetrics fm = g2d.getFontMetrics();
+        int boxWidth = 0;
+        for (String line : lines) {
+            boxWidth = Math.max(boxWidth, fm.stringWidth(line));
+        }
+        int lineHeight = fm.getHeight();
+        int boxHeight = lines.size() * lineHeight + 10;
+        int boxX = getWidth() - boxWidth - 30;
+        int boxY = 20;
+
+        g2d.setColor(new Color(60, 60, 60, 200));
+        g2d.fillRect(boxX, boxY, boxWidth + 20, boxHeight + 10);
+
+        g2d.setColor(new Color(245, 232, 132));
+        int textYPos = boxY + fm.getAscent() + 5;
+        for (String line : lines) {
+            g2d.drawString(line, boxX + 10, textYPos);
+            textYPos += lineHeight;
+        }
     }
 }
@@ -1,23 +1,105 @@
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.io.File;
 import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class GameServer {
 
     // All active client handlers, keyed by player ID
     private Map<Integer, ClientHandler> clients = new ConcurrentHashMap<>();
-    private GameLogic gameLogic = new GameLogic();
+    private GameLogic gameLogic = createLogic();
+    private final MapData mapData = gameLogic.getMap().toMapData();
+    // Maps bigger than a screen: each client only gets what it can see
+    private final boolean cullViews = gameLogic.getMap().width > ArenaMap.VIEW_WIDTH
+            || gameLogic.getMap().height > ArenaMap.VIEW_HEIGHT;
+    private InputRecorder recorder;
+
+    // Writes checkpoints off the game thread; one waiting at most, a newer
+    // one replaces it. Null without -Dtankgame.checkpoint.
+    private ThreadPoolExecutor checkpointWriter;
+
+    // All-time player stats; null without -Dtankgame.statsFile
+    private volatile PlayerStatsStore statsStore;
+
+    // Lockstep mode: inputs go out instead of snapshots; null otherwise
+    private final LockstepRelay lockstep;
+    // Clients due a LockstepStart: just logged in, or out of step
+    private final Set<Integer> lockstepPending = ConcurrentHashMap.newKeySet();
+
+    // Who may connect and log in
+    private final AdmissionController admission = new AdmissionController(
+            ServerConfig.MAX_HANDSHAKES, ServerConfig.HANDSHAKE_TIMEOUT_SECONDS * 1000L,
+            ServerConfig.IP_JOIN_RATE, ServerConfig.IP_JOIN_BURST, ServerConfig.MAX_PLAYERS);
+
+    // Sheds work when ticks overrun; null if disabled
+    private final OverloadGovernor governor = ServerConfig.OVERLOAD_GOVERNOR
+            ? new OverloadGovernor(gameLogic.getTickRate()) : null;
+
+    // Reconnect token -> slot, for every logged-in player
+    private final Map<Long, ReconnectSlot> reconnectTokens = new ConcurrentHashMap<>();
+    // Players whose connection dropped -> when their tank is removed
+    private final Map<Integer, Long> reconnectDeadlines = new ConcurrentHashMap<>();
+    // Held while a player's seat, token or grace period changes hands,
+    // so a drop racing a login (or a reconnect) is counted once
+    private final ReentrantLock sessionLock = new ReentrantLock();
+
+    // Recorders and relay feeds; each gets every tick's snapshot
+    private List<SnapshotSink> snapshotSinks = new CopyOnWriteArrayList<>();
 
     private ServerSocket serverSocket = null;
+    // Reader and writer threads of client connections
+    private final ThreadFactory connectionThreads = ConnectionThreads.create(ServerConfig.CONNECTION_THREADS);
+    private volatile UdpServer udpServer;
+    private final SecureRandom tokenSource = new SecureRandom();
+    private final WireCodec.FrameBuffer snapshotBuffer = new WireCodec.FrameBuffer(8192);
+
+    // Per-client snapshot work runs here; null = on the game thread
+    private ForkJoinPool encodePool;
+    private final List<ForkJoinTask<?>> sendTasks = new ArrayList<>();
+
+    // Snapshot compression may use at most a quarter of each tick
+    private final CompressionBudget compressionBudget =
+            new CompressionBudget(1_000_000_000L / gameLogic.getTickRate() / 4);
     private volatile boolean running = false;
 
+    // Set while the arena is idle and the game loop may be parked
+    private volatile boolean hibernating = false;
+    private volatile Thread gameThread;
+
     private int nextPlayerId = 1;
     private ServerGUI gui; // reference to the GUI
 
     public GameServer(ServerGUI gui) {
         this.gui = gui;
+        gameLogic.setLoginListener(this::answerLoginAttempt);
+        if (ServerConfig.LOCKSTEP) {
+            lockstep = new LockstepRelay(gameLogic.getTickRate(), ServerConfig.LOCKSTEP_HISTORY_KB * 1024);
+            gameLogic.setInputListener(lockstep);
+            System.out.println("Lockstep mode: clients simulate from relayed inputs");
+        } else {
+            lockstep = null;
+        }
+        if (ServerConfig.TICK_THREADS > 1) {
+            gameLogic.setTickPool(new ForkJoinPool(ServerConfig.TICK_THREADS));
+        }
     }
 
     /**
@@ -29,6 +111,37 @@ public class GameServer {
             running = true;
             System.out.println("Server started, listening on port " + port);
 
+            if (ServerConfig.RECORD_FILE != null && recorder == null && gameLogic.getTick() == 0) {
+                recorder = new InputRecorder(ServerConfig.RECORD_FILE, gameLogic);
+                gameLogic.setInputRecorder(recorder);
+                System.out.println("Recording inputs to " + ServerConfig.RECORD_FILE
+                        + " (seed " + gameLogic.getSeed() + ")");
+            }
+            startSnapshotSinks();
+            startStatsStore();
+
+            if (ServerConfig.CHECKPOINT_FILE != null) {
+                checkpointWriter = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                        new ArrayBlockingQueue<>(1), r -> {
+                            Thread t = new Thread(r, "checkpoint-writer");
+                            t.setDaemon(true);
+                            return t;
+                        }, new ThreadPoolExecutor.DiscardOldestPolicy());
+            }
+
+            if (ServerConfig.UDP_PORT > 0) {
+                try {
+                    udpServer = new UdpServer(ServerConfig.UDP_PORT, this);
+                    System.out.println("UDP snapshot channel on port " + ServerConfig.UDP_PORT);
+                } catch (IOException e) {
+                    System.out.println("UDP channel disabled: " + e.getMessage());
+                }
+            }
+
+            if (ServerConfig.ENCODE_THREADS > 1) {
+                encodePool = new ForkJoinPool(ServerConfig.ENCODE_THREADS);
+            }
+
             // Main game loop in a separate thread
             new Thread(this::gameLoop).start();
 
@@ -37,15 +150,20 @@ public class GameServer {
                 Socket clientSocket = serverSocket.accept();
                 if (!running) break; // in case stopServer() was called
 
+                // Shed joins here, before they cost a thread
+                String refusal = admission.admit(clientSocket.getInetAddress(), System.nanoTime());
+                if (refusal != null) {
+                    refuse(clientSocket, refusal);
+                    continue;
+                }
                 System.out.println("New client connected: " + clientSocket);
 
+                // The tank joins the game when the login is accepted
                 int playerId = nextPlayerId++;
                 ClientHandler handler = new ClientHandler(playerId, clientSocket, this);
                 clients.put(playerId, handler);
-                handler.start();
-
-                // Register in the game logic
-                gameLogic.addPlayer(playerId);
+                admission.startHandshake(playerId);
+                handler.start(connectionThreads);
 
                 // Update the GUI client count
                 gui.updateClientCount(clients.size());
@@ -61,17 +179,147 @@ public class GameServer {
     }
 
     /**
-     * The main update loop for the server, ~60 FPS.
+     * The match saved in -Dtankgame.checkpoint if there is one, else a
+     * new one on the configured map.
+     */
+    private static GameLogic createLogic() {
+        String path = ServerConfig.CHECKPOINT_FILE;
+        if (path != null && new File(path).exists()) {
+            if (ServerConfig.LOCKSTEP) {
+                // Lockstep clients rebuild the match from tick 0's inputs
+                System.out.println("Not resuming " + path + " in lockstep mode");
+            } else {
+                try {
+                    long start = System.nanoTime();
+                    GameLogic logic = GameLogic.restore(Checkpoint.read(path));
+                    System.out.println(String.format("Resumed match from %s at tick %d in %.1f ms; %d players can log back in",
+                            path, logic.getTick(), (System.nanoTime() - start) / 1e6, logic.getRestoredPlayerCount()));
+                    return logic;
+                } catch (IOException e) {
+                    System.out.println("Checkpoint not restored, starting a new match: " + e.getMessage());
+                }
+            }
+        }
+        return new GameLogic(ServerConfig.SEED, ServerConfig.BUFF_COUNT, ServerConfig.TICK_RATE, loadMap());
+    }
+
+    /**
+     * Copy the match state now and write it out on the checkpoint thread.
+     */
+    private void saveCheckpoint() {
+        Checkpoint cp = gameLogic.checkpoint();
+        checkpointWriter.execute(() -> {
+            try {
+                cp.write(ServerConfig.CHECKPOINT_FILE);
+            } catch (IOException e) {
+                System.out.println("Checkpoint failed: " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * The arena from -Dtankgame.map, or an open one of the configured
+     * size if that's unset or can't be read.
+     */
+    private static ArenaMap loadMap() {
+        if (ServerConfig.MAP_FILE == null) return ArenaMap.empty(ServerConfig.MAP_WIDTH, ServerConfig.MAP_HEIGHT);
+        try {
+            ArenaMap map = ArenaMap.load(ServerConfig.MAP_FILE);
+            System.out.println("Loaded map " + ServerConfig.MAP_FILE + ": " + map.width + "x" + map.height
+                    + ", " + map.getWallCount() + " walls");
+            return map;
+        } catch (IOException e) {
+            System.out.println("Map not loaded, using the open arena: " + e.getMessage());
+            return ArenaMap.empty(ServerConfig.MAP_WIDTH, ServerConfig.MAP_HEIGHT);
+        }
+    }
+
+    /**
+     * Optional consumers of every tick's snapshot. A failure here is
+     * reported but doesn't stop the match.
+     */
+    private void startSnapshotSinks() {
+        if (ServerConfig.MATCH_DIR != null) {
+            try {
+                snapshotSinks.add(new MatchRecording(ServerConfig.MATCH_DIR, gameLogic.getTickRate(), mapData));
+                System.out.println("Recording match to " + ServerConfig.MATCH_DIR);
+            } catch (IOException e) {
+                System.out.println("Match recording disabled: " + e.getMessage());
+            }
+        }
+        if (ServerConfig.RELAY_PORT > 0) {
+            try {
+                snapshotSinks.add(new SnapshotFeed(ServerConfig.RELAY_PORT, mapData));
+                System.out.println("Spectator relay feed on port " + ServerConfig.RELAY_PORT);
+            } catch (IOException e) {
+                System.out.println("Spectator relay feed disabled: " + e.getMessage());
+            }
+        }
+    }
+
+    private void startStatsStore() {
+        if (ServerConfig.STATS_FILE == null || statsStore != null) return;
+        try {
+            statsStore = new PlayerStatsStore(ServerConfig.STATS_FILE);
+            gameLogic.setStatsListener(statsStore);
+            System.out.println("Player stats in " + ServerConfig.STATS_FILE + "; all-time top kills:");
+            for (PlayerStats s : statsStore.top(5)) System.out.println("  " + s);
+        } catch (IOException e) {
+            System.out.println("Player stats disabled: " + e.getMessage());
+        }
+    }
+
+    /**
+     * The main update loop for the server, at the logic's tick rate.
      */
     private void gameLoop() {
-        final int FPS = 60;
+        final int FPS = gameLogic.getTickRate();
         final long frameTime = 1000 / FPS;
+        gameThread = Thread.currentThread();
+        if (ServerConfig.HIBERNATE) gameLogic.setWakeListener(this::wakeGameLoop);
 
         while (running) {
+            if (ServerConfig.HIBERNATE) hibernateWhileIdle(1_000_000_000L / FPS);
             long start = System.currentTimeMillis();
+            long startNanos = System.nanoTime();
+            long before = gameLogic.getTick();
 
+            releaseInputs();
             gameLogic.update();
-            broadcastGameState();
+            GameState state = gameLogic.buildGameState();
+            if (lockstep != null) relayInputs();
+            // In lockstep mode only clients the inputs can't catch up get these
+            if ((lockstep == null || !lockstep.canStart())
+                    && (governor == null || state.tick % governor.snapshotInterval() == 0)) {
+                broadcastGameState(state);
+            }
+
+            // Once a second, measure every client's RTT and clock offset
+            if (crossed(before, state.tick, FPS)) {
+                for (ClientHandler ch : clients.values()) {
+                    ch.sendPing();
+                }
+            }
+            // A few times a second, fit each client's snapshot rate to its link
+            if (crossed(before, state.tick, Math.max(1, FPS / 4))) {
+                for (ClientHandler ch : clients.values()) {
+                    ch.updateCongestion();
+                }
+            }
+            if (governor == null || state.tick % governor.sinkInterval() == 0) {
+                for (SnapshotSink sink : snapshotSinks) {
+                    sink.offer(state);
+                }
+            }
+            if (crossed(before, state.tick, FPS)) {
+                checkAdmissions();
+            }
+            if (checkpointWriter != null && crossed(before, state.tick, FPS * ServerConfig.CHECKPOINT_SECONDS)) {
+                saveCheckpoint();
+            }
+            if (governor != null && governor.update(System.nanoTime() - startNanos)) {
+                applyOverloadLevel();
+            }
 
             long end = System.currentTimeMillis();
             long sleepTime = frameTime - (end - start);
@@ -81,6 +329,96 @@ public class GameServer {
                 } catch (InterruptedException ignored) {}
             }
         }
+
+        gameLogic.setWakeListener(null);
+
+        // A last checkpoint, so a drained host's match resumes elsewhere
+        if (checkpointWriter != null) {
+            saveCheckpoint();
+            checkpointWriter.shutdown();
+            try {
+                checkpointWriter.awaitTermination(5, TimeUnit.SECONDS);
+            } catch (InterruptedException ignored) {}
+            checkpointWriter = null;
+        }
+        if (statsStore != null) {
+            gameLogic.closeSessions();
+            gameLogic.setStatsListener(null);
+            statsStore.close();
+            statsStore = null;
+        }
+        if (recorder != null) {
+            recorder.close(gameLogic.getTick());
+            gameLogic.setInputRecorder(null);
+            recorder = null;
+        }
+        for (SnapshotSink sink : snapshotSinks) {
+            sink.close();
+        }
+        snapshotSinks.clear();
+        if (encodePool != null) {
+            encodePool.shutdown();
+            encodePool = null;
+        }
+    }
+
+    /**
+     * Whether the clock passed a multiple of 'interval' going from
+     * 'before' to 'now'; a hibernating arena skips ticks.
+     */
+    private static boolean crossed(long before, long now, long interval) {
+        return now / interval != before / interval;
+    }
+
+    /**
+     * With nothing moving in the arena, sleep until the next timer is
+     * due, an input arrives or IDLE_WAKE_MS pass, and have the clock skip
+     * the ticks slept through. The loop then runs one tick as usual
+     * (snapshots, once-a-second chores) and comes back here.
+     */
+    private void hibernateWhileIdle(long frameNanos) {
+        long due = hasBufferedInputs() ? -1 : gameLogic.idleUntil();
+        if (due < 0) {
+            if (hibernating) {
+                hibernating = false;
+                System.out.println("Arena active again at tick " + gameLogic.getTick());
+            }
+            return;
+        }
+        if (!hibernating) {
+            hibernating = true;
+            System.out.println("Arena idle, hibernating at tick " + gameLogic.getTick());
+        }
+        // An input queued before the flag was up didn't wake us
+        if (hasBufferedInputs() || gameLogic.idleUntil() < 0) return;
+
+        long ticksLeft = due - gameLogic.getTick();
+        long maxWait = ServerConfig.IDLE_WAKE_MS * 1_000_000L;
+        long wait = ticksLeft >= maxWait / frameNanos ? maxWait : ticksLeft * frameNanos;
+        long parkedAt = System.nanoTime();
+        if (wait > 0) LockSupport.parkNanos(this, wait);
+        long slept = (System.nanoTime() - parkedAt) / frameNanos;
+        // Never past a timer: it has to run on its own tick
+        long skip = Math.min(slept, Math.max(0, ticksLeft));
+        if (skip > 0) gameLogic.skipIdle((int) Math.min(skip, Integer.MAX_VALUE));
+    }
+
+    /**
+     * An input was queued (any thread): a parked game loop runs now.
+     */
+    private void wakeGameLoop() {
+        Thread t = gameThread;
+        if (hibernating && t != null && t != Thread.currentThread()) LockSupport.unpark(t);
+    }
+
+    /**
+     * The governor changed level: switch the bullet cap and join refusal
+     * to match. Snapshot and spectator rates are read every tick.
+     */
+    private void applyOverloadLevel() {
+        System.out.println("Overload " + governor);
+        gameLogic.setBulletCap(governor.capsBullets() ? ServerConfig.OVERLOAD_BULLET_CAP : 0);
+        admission.setRefusingJoins(governor.refusesJoins());
     }
 
     /**
@@ -89,10 +427,17 @@ public class GameServer {
      */
     public void stopServer() {
         running = false;
+        Thread t = gameThread;
+        if (t != null) LockSupport.unpark(t); // if hibernating
 
         // This will break the accept() call
         closeServerSocket();
 
+        if (udpServer != null) {
+            udpServer.close();
+            udpServer = null;
+        }
+
         // Close all client connections
         closeAllClients();
         clients.clear();
@@ -107,37 +452,368 @@ public class GameServer {
     }
 
     /**
-     * Called from ClientHandler when a new Command arrives.
+     * Called from ClientHandler (or UdpServer) when a new Command arrives;
+     * it waits in the client's InputJitterBuffer for its tick.
      */
     public void receiveCommand(int playerId, Command cmd) {
-        gameLogic.handleCommand(playerId, cmd);
+        ClientHandler ch = clients.get(playerId);
+        if (ch == null) return;
+        ch.getInputs().offer(cmd);
+        wakeGameLoop();
+    }
+
+    /**
+     * Hand each client's command for this tick (if any) to the game logic.
+     */
+    private void releaseInputs() {
+        for (ClientHandler ch : clients.values()) {
+            Command cmd = ch.getInputs().poll();
+            if (cmd != null) gameLogic.handleCommand(ch.getPlayerId(), cmd);
+        }
+    }
+
+    private boolean hasBufferedInputs() {
+        for (ClientHandler ch : clients.values()) {
+            if (!ch.getInputs().isEmpty()) return true;
+        }
+        return false;
     }
 
     public void receiveLoginAttempt(int playerId, LoginAttempt loginAttempt) {
+        if (loginAttempt.reconnectToken != 0 && reconnect(playerId, loginAttempt.reconnectToken)) return;
+        if (!admission.takeSeat()) {
+            ClientHandler ch = clients.get(playerId);
+            if (ch != null) {
+                LoginAttempt answer = new LoginAttempt();
+                answer.username = loginAttempt.username;
+                answer.refusal = AdmissionController.SERVER_FULL;
+                ch.answerLoginAttempt(answer, null);
+                ch.closeWhenSent();
+            }
+            return;
+        }
+        gameLogic.addPlayer(playerId);
+        gameLogic.handleLoginAttempt(playerId, loginAttempt);
+    }
+
+    /**
+     * Refuse a connection at accept: a REFUSED id, then the reason.
+     * Tiny writes to a fresh socket don't block the accept loop.
+     */
+    private static void refuse(Socket socket, String reason) {
         try {
-            loginAttempt.accessAllowed = gameLogic.handleLoginAttempt(playerId, loginAttempt);
-            clients.get(playerId).answerLoginAttempt(loginAttempt);
-        }catch (IOException e){
-            System.out.println("Some problem answering a login attempt for player ID: " + playerId);
+            ObjectOutputStream out = new ObjectOutputStream(socket.getOutputStream());
+            out.writeInt(LoginAttempt.REFUSED);
+            LoginAttempt answer = new LoginAttempt();
+            answer.refusal = reason;
+            out.writeObject(answer);
+            out.flush();
+        } catch (IOException ignored) {
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException ignored) {}
         }
     }
 
     /**
-     * Send the current game state to all clients.
+     * Put the client that just connected as 'playerId' back into the slot
+     * 'token' was issued for: the tank, score and username are still
+     * there, so it's answered straight away, without going through the
+     * game logic, and its first snapshot is a keyframe. False if the token
+     * is unknown or expired; the attempt is then an ordinary login.
+     * Called on the new connection's reader thread.
      */
-    private void broadcastGameState() {
-        GameState state = gameLogic.buildGameState();
+    private boolean reconnect(int playerId, long token) {
+        ReconnectSlot found;
+        ClientHandler ch;
+        sessionLock.lock();
+        try {
+            found = reconnectTokens.get(token);
+            if (found == null) return false;
+            ch = clients.get(playerId);
+            if (ch == null) return true; // gone already; the slot's grace runs on
+            reconnectTokens.remove(token);
+            reconnectDeadlines.remove(found.playerId);
+            // The old connection may not have noticed it's dead yet
+            ClientHandler stale = clients.remove(found.playerId);
+            if (stale != null) stale.close();
+
+            clients.remove(playerId, ch);
+            admission.finishHandshake(playerId);
+            ch.rebind(found.playerId);
+            clients.put(found.playerId, ch);
+        } finally {
+            sessionLock.unlock();
+        }
+        int slot = found.playerId;
+        answerLoginAttempt(slot, found.username, true);
+        ch.requestKeyframe();
+        System.out.println("Player " + slot + " reconnected");
+        gui.updateClientCount(clients.size());
+        return true;
+    }
+
+    /**
+     * Once a second: drop logins that took too long, remove players who
+     * didn't reconnect in time, and log what admission control refused.
+     */
+    private void checkAdmissions() {
+        for (int playerId : admission.expireHandshakes()) {
+            ClientHandler ch = clients.get(playerId);
+            if (ch != null) {
+                System.out.println("Client " + playerId + " did not log in in time");
+                ch.close();
+            }
+        }
+        if (!reconnectDeadlines.isEmpty()) expireDisconnected();
+        String refusals = admission.drainRefusals();
+        if (refusals != null) System.out.println(refusals);
+    }
+
+    /**
+     * Remove the tanks of players who didn't reconnect in time.
+     */
+    private void expireDisconnected() {
+        long now = System.currentTimeMillis();
+        sessionLock.lock();
+        try {
+            for (Iterator<Map.Entry<Integer, Long>> it = reconnectDeadlines.entrySet().iterator(); it.hasNext(); ) {
+                Map.Entry<Integer, Long> e = it.next();
+                if (e.getValue() > now) continue;
+                it.remove();
+                int playerId = e.getKey();
+                reconnectTokens.values().removeIf(s -> s.playerId == playerId);
+                gameLogic.removePlayer(playerId);
+                admission.releaseSeat();
+                System.out.println("Player " + playerId + " did not reconnect, removed");
+            }
+        } finally {
+            sessionLock.unlock();
+        }
+    }
+
+    /**
+     * Called by the game logic (on the game thread) once a login was checked.
+     */
+    private void answerLoginAttempt(int playerId, String username, boolean accepted) {
+        ClientHandler ch = clients.get(playerId);
+        if (ch == null || !accepted) {
+            // Its seat wasn't used; a refused login may try another name
+            gameLogic.removePlayer(playerId);
+            admission.releaseSeat();
+        }
+        if (ch == null) return; // disconnected while waiting
+        LoginAttempt answer = new LoginAttempt();
+        answer.username = username;
+        answer.accessAllowed = accepted;
+        if (!accepted) answer.refusal = "Username " + username + " is taken";
+        if (accepted) {
+            admission.finishHandshake(playerId);
+            long token = newToken();
+            sessionLock.lock();
+            try {
+                if (clients.get(playerId) != ch) {
+                    // Dropped before it had a token to come back with
+                    gameLogic.removePlayer(playerId);
+                    admission.releaseSeat();
+                    return;
+                }
+                ch.setReconnectToken(token);
+                reconnectTokens.put(token, new ReconnectSlot(playerId, username));
+            } finally {
+                sessionLock.unlock();
+            }
+            answer.playerId = playerId;
+            answer.reconnectToken = token;
+        }
+        // Lockstep inputs must arrive complete and in order: TCP only
+        if (accepted && udpServer != null && lockstep == null) {
+            ch.setUdpToken(newToken());
+            answer.udpPort = udpServer.getPort();
+            answer.udpToken = ch.getUdpToken();
+        }
+        // Static geometry goes out once; snapshots never carry it
+        ch.answerLoginAttempt(answer, accepted ? mapData : null);
+        if (accepted && lockstep != null) lockstepPending.add(playerId);
+    }
+
+    /**
+     * A random session token; never 0, which stands for "none".
+     */
+    private long newToken() {
+        long token;
+        do {
+            token = tokenSource.nextLong();
+        } while (token == 0);
+        return token;
+    }
+
+    /**
+     * Send the current game state to all clients. Each client's snapshot
+     * is cut, encoded and sent on the encode pool; 'state' and the shared
+     * encoding are only read from there, and everything is done before
+     * this returns, i.e. before the next tick.
+     */
+    private void broadcastGameState(GameState state) {
+        if (clients.isEmpty()) return;
+
+        // Encoded once for everybody; compression is per connection
+        int fullLength = encodeSnapshot(snapshotBuffer, state);
+        compressionBudget.startTick();
+        Set<Integer> leaders = cullViews ? topScorers(state, 10) : null;
+
+        if (encodePool == null || clients.size() == 1) {
+            for (ClientHandler ch : clients.values()) {
+                sendSnapshot(ch, state, fullLength, leaders);
+            }
+            return;
+        }
         for (ClientHandler ch : clients.values()) {
-            ch.sendGameState(state);
+            sendTasks.add(encodePool.submit(() -> sendSnapshot(ch, state, fullLength, leaders)));
         }
+        for (ForkJoinTask<?> task : sendTasks) {
+            try {
+                task.join();
+            } catch (RuntimeException e) {
+                System.out.println("Sending a snapshot failed: " + e);
+            }
+        }
+        sendTasks.clear();
+    }
+
+    /**
+     * One client's share of broadcastGameState. Only touches that
+     * client's state, so clients can be served in parallel.
+     */
+    private void sendSnapshot(ClientHandler ch, GameState state, int fullLength, Set<Integer> leaders) {
+        if (ch.isLockstepStarted()) return; // simulates from relayed inputs
+        // Clients on weak links get fewer, smaller snapshots
+        CongestionController congestion = ch.getCongestion();
+        boolean keyframe = ch.takeKeyframe();
+        if (!keyframe && !congestion.shouldSend(state.tick)) return;
+
+        GameState view = state;
+        byte[] encoded = snapshotBuffer.array();
+        int length = fullLength;
+        WireCodec.FrameBuffer own = ch.getSnapshotBuffer();
+        if (cullViews) {
+            view = ch.getPrioritizer().cull(state, leaders);
+            length = encodeSnapshot(own, view);
+            encoded = own.array();
+        }
+        int budget = congestion.getByteBudget();
+        if (length > budget && !keyframe) {
+            length = encodeSnapshot(own, ch.getPrioritizer().trim(view, budget));
+            encoded = own.array();
+        } else {
+            ch.getPrioritizer().sentFull(state.tick);
+        }
+
+        // Too big for one datagram, even deflated: this tick goes over TCP
+        UdpServer udp = udpServer;
+        if (udp == null || !ch.usesUdp() || !udp.sendSnapshot(ch, encoded, length, compressionBudget)) {
+            ch.sendSnapshot(encoded, length, compressionBudget);
+        }
+    }
+
+    /**
+     * Lockstep mode: this tick's inputs to every started client, then a
+     * start for each client that just logged in or fell out of step, or
+     * snapshots from now on if the inputs can no longer catch it up.
+     */
+    private void relayInputs() {
+        LockstepFrame frame = lockstep.finishTick(gameLogic);
+        for (ClientHandler ch : clients.values()) {
+            if (ch.isLockstepStarted() && !ch.sendLockstep(frame)) {
+                lockstepPending.add(ch.getPlayerId());
+            }
+        }
+        if (lockstepPending.isEmpty()) return;
+
+        LockstepStart start = lockstep.canStart() ? lockstep.start(gameLogic, mapData) : null;
+        for (Iterator<Integer> it = lockstepPending.iterator(); it.hasNext(); ) {
+            ClientHandler ch = clients.get(it.next());
+            it.remove();
+            if (ch == null) continue;
+            if (start == null) {
+                ch.setLockstepStarted(false);
+                ch.requestKeyframe();
+            } else if (ch.sendLockstep(start)) {
+                ch.setLockstepStarted(true);
+            }
+        }
+    }
+
+    /**
+     * A lockstep client lost step and asks to start over.
+     */
+    public void requestLockstepStart(int playerId) {
+        if (lockstep != null) lockstepPending.add(playerId);
+    }
+
+    /**
+     * Ids of the 'count' highest scorers, for the clients' leaderboards.
+     */
+    private static Set<Integer> topScorers(GameState state, int count) {
+        List<GameState.PlayerData> sorted = new ArrayList<>(state.players);
+        sorted.sort((p1, p2) -> Integer.compare(p2.score, p1.score));
+        Set<Integer> ids = new HashSet<>();
+        for (int i = 0; i < Math.min(count, sorted.size()); i++) {
+            ids.add(sorted.get(i).playerId);
+        }
+        return ids;
+    }
+
+    private static int encodeSnapshot(WireCodec.FrameBuffer buffer, GameState state) {
+        buffer.reset();
+        try {
+            WireCodec.writeGameState(buffer.data, state);
+        } catch (IOException e) {
+            return Integer.MAX_VALUE; // can't happen writing to memory
+        }
+        return buffer.size();
+    }
+
+    public int getTickRate() {
+        return gameLogic.getTickRate();
+    }
+
+    public ClientHandler getClient(int playerId) {
+        return clients.get(playerId);
+    }
+
+    /**
+     * RTT, jitter and clock offset of a connected client, or null.
+     */
+    public NetStats getClientNetStats(int playerId) {
+        ClientHandler ch = clients.get(playerId);
+        return ch == null ? null : ch.getNetStats();
     }
 
     /**
-     * Called from ClientHandler.close() if a client disconnects.
+     * Called from ClientHandler.close() if a client disconnects. A player
+     * who had logged in keeps their tank, standing still, for the grace
+     * period; their token gets it back.
      */
-    public void removeClient(int playerId) {
-        clients.remove(playerId);
-        gameLogic.removePlayer(playerId);
+    public void removeClient(int playerId, ClientHandler ch) {
+        sessionLock.lock();
+        try {
+            if (!clients.remove(playerId, ch)) return; // replaced by a reconnect
+            admission.finishHandshake(playerId);
+            if (udpServer != null) udpServer.unbind(ch);
+            long token = ch.getReconnectToken();
+            if (token != 0 && running && ServerConfig.RECONNECT_GRACE_SECONDS > 0) {
+                gameLogic.handleCommand(playerId, new Command());
+                reconnectDeadlines.put(playerId,
+                        System.currentTimeMillis() + ServerConfig.RECONNECT_GRACE_SECONDS * 1000L);
+            } else {
+                gameLogic.removePlayer(playerId);
+                if (token != 0 && reconnectTokens.remove(token) != null) admission.releaseSeat();
+            }
+        } finally {
+            sessionLock.unlock();
+        }
         gui.updateClientCount(clients.size());
     }
 
@@ -159,7 +835,20 @@ public class GameServer {
      */
     private void closeAllClients() {
         for (ClientHandler ch : clients.values()) {
-            ch.interrupt();  // forcibly close each client
+            ch.close();  // forcibly close each client
+        }
+    }
+
+    /**
+     * What a reconnect token stands for.
+     */
+    private static final class ReconnectSlot {
+        final int playerId;
+        final String username;
+
+        ReconnectSlot(int playerId, String username) {
+            this.playerId = playerId;
+            this.username = username;
         }
     }
 
@@ -9,6 +9,9 @@ import java.util.List;
 public class GameState implements Serializable {
     private static final long serialVersionUID = 1L;
 
+    // Server tick this state was built on
+    public long tick;
+
     // All players in the game
     public List<PlayerData> players = new ArrayList<>();
 
@@ -18,6 +21,10 @@ public class GameState implements Serializable {
     // Single buff (or you could support multiple)
     public List<BuffData> buffs;
 
+    // Players left out of a trimmed snapshot (null if none); the client
+    // keeps their previous state
+    public int[] omittedPlayers;
+
     // Nested data classes
     public static class PlayerData implements Serializable {
         public int playerId;
@@ -8,7 +8,7 @@ public class HostJoinWindow extends JFrame {
     public HostJoinWindow() {
         // Basic window setup
         setTitle("Host or Join");
-        setSize(300, 200);             // small and compact
+        setSize(300, 240);             // small and compact
         setLocationRelativeTo(null);   // center on screen
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
 
@@ -60,6 +60,21 @@ public class HostJoinWindow extends JFrame {
              GameClient.main();
         });
 
+        // "Watch" button for spectating through a relay
+        JButton watchButton = new JButton("Watch");
+        watchButton.setAlignmentX(Component.CENTER_ALIGNMENT);
+        watchButton.setFocusPainted(false);
+
+        // Watch button styling
+        watchButton.setBackground(new Color(0xFE9677)); // peach from the palette
+        watchButton.setForeground(Color.WHITE);
+        watchButton.setFont(new Font("Verdana", Font.BOLD, 14));
+
+        watchButton.addActionListener(e -> {
+            dispose();
+            SpectatorClient.main();
+        });
+
         // Add some spacing and add components
         mainPanel.add(Box.createVerticalStrut(20));
         mainPanel.add(titleLabel);
@@ -67,6 +82,8 @@ public class HostJoinWindow extends JFrame {
         mainPanel.add(hostButton);
         mainPanel.add(Box.createVerticalStrut(10));
         mainPanel.add(joinButton);
+        mainPanel.add(Box.createVerticalStrut(10));
+        mainPanel.add(watchButton);
         mainPanel.add(Box.createVerticalStrut(20));
 
         // Add the panel to the frame
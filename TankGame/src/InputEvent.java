@@ -0,0 +1,48 @@
+/**
+ * One input to the simulation: a join, leave, login or command; or from
+ * the server itself, a change of the bullet cap (see OverloadGovernor)
+ * or a jump of the clock over ticks an idle arena slept through.
+ * Network threads only queue these; GameLogic applies them at the
+ * start of a tick, which is what makes a match replayable.
+ */
+public class InputEvent {
+    public enum Type {JOIN, LEAVE, LOGIN, COMMAND, BULLET_CAP, IDLE_SKIP}
+
+    public final Type type;
+    public final int playerId;
+    public final String username; // LOGIN only
+    public final Command command; // COMMAND only
+    public final int amount; // BULLET_CAP: the cap; IDLE_SKIP: ticks
+
+    private InputEvent(Type type, int playerId, String username, Command command, int amount) {
+        this.type = type;
+        this.playerId = playerId;
+        this.username = username;
+        this.command = command;
+        this.amount = amount;
+    }
+
+    public static InputEvent join(int playerId) {
+        return new InputEvent(Type.JOIN, playerId, null, null, 0);
+    }
+
+    public static InputEvent leave(int playerId) {
+        return new InputEvent(Type.LEAVE, playerId, null, null, 0);
+    }
+
+    public static InputEvent login(int playerId, String username) {
+        return new InputEvent(Type.LOGIN, playerId, username, null, 0);
+    }
+
+    public static InputEvent command(int playerId, Command command) {
+        return new InputEvent(Type.COMMAND, playerId, null, command, 0);
+    }
+
+    public static InputEvent bulletCap(int limit) {
+        return new InputEvent(Type.BULLET_CAP, 0, null, null, limit);
+    }
+
+    public static InputEvent idleSkip(int ticks) {
+        return new InputEvent(Type.IDLE_SKIP, 0, null, null, ticks);
+    }
+}
@@ -0,0 +1,150 @@
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * One client's commands on their way into the game logic. Instead of
+ * the newest command overwriting whatever came before it, commands are
+ * queued in arrival order (UDP ones are already filtered by seq) and
+ * the game loop takes at most one button state per tick, so a burst of
+ * commands that arrived together still plays out tick by tick and a
+ * brief shot press isn't lost.
+ *
+ * Commands can be held back a few ticks (the depth) to smooth out
+ * uneven delivery. The depth follows the measured jitter: how much the
+ * spacing of arrivals differs from the spacing the client sent them at
+ * (Command.sentMillis, its own clock), smoothed as in RFC 3550. That
+ * only depends on the path from client to server, not on how many
+ * snapshots the server is sending. On a steady link it stays at 0,
+ * which adds no delay.
+ *
+ * Commands that only move the turret (same buttons as the one before)
+ * are merged into the newest of them, so mouse movement never backs
+ * the queue up.
+ */
+public class InputJitterBuffer {
+
+    private static final int CAPACITY = 64;
+    private static final int MAX_DEPTH = 4;
+    // Arrival spacing errors beyond this are outliers (a stall, a skip)
+    private static final double MAX_TRANSIT_CHANGE = 10;
+
+    private final long frameNanos;
+
+    // Ring of queued commands and when each arrived
+    private final Command[] commands = new Command[CAPACITY];
+    private final long[] arrivals = new long[CAPACITY];
+    private int head = 0;
+    private int size = 0;
+    private final ReentrantLock lock = new ReentrantLock();
+
+    // Jitter estimate, in ticks
+    private volatile double jitter = 0;
+    private volatile int depth = 0;
+    private long lastArrival;
+    private long lastSentMillis = 0;
+
+    public InputJitterBuffer(int tickRate) {
+        this.frameNanos = 1_000_000_000L / tickRate;
+    }
+
+    /**
+     * A command from the client (network thread).
+     */
+    public void offer(Command cmd) {
+        long now = System.nanoTime();
+        lock.lock();
+        try {
+            measure(cmd.sentMillis, now);
+            if (size == CAPACITY) {
+                // A client flooding us: the oldest command goes
+                head = (head + 1) % CAPACITY;
+                size--;
+            }
+            int i = (head + size) % CAPACITY;
+            commands[i] = cmd;
+            arrivals[i] = now;
+            size++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Game thread, once per tick: the command to apply this tick, or
+     * null to keep the last one.
+     */
+    public Command poll() {
+        long now = System.nanoTime();
+        lock.lock();
+        try {
+            long due = now - depth * frameNanos + frameNanos / 2;
+            if (size == 0 || arrivals[head] > due) return null;
+            Command cmd = take();
+            // Turret-only updates that are due fold into the newest one
+            while (size > 0 && arrivals[head] <= due && sameButtons(cmd, commands[head])) {
+                cmd = take();
+            }
+            return cmd;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isEmpty() {
+        lock.lock();
+        try {
+            return size == 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Ticks commands are currently held back.
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    public double getJitterTicks() {
+        return jitter;
+    }
+
+    private Command take() {
+        Command cmd = commands[head];
+        commands[head] = null;
+        head = (head + 1) % CAPACITY;
+        size--;
+        return cmd;
+    }
+
+    /**
+     * Update the jitter estimate with a command that arrived at 'now',
+     * sent at 'sentMillis' on the client's clock.
+     */
+    private void measure(long sentMillis, long now) {
+        if (sentMillis > 0 && lastSentMillis > 0 && sentMillis >= lastSentMillis) {
+            double arrivalTicks = (double) (now - lastArrival) / frameNanos;
+            double sentTicks = (sentMillis - lastSentMillis) * 1_000_000.0 / frameNanos;
+            double change = Math.abs(arrivalTicks - sentTicks);
+            jitter += (Math.min(change, MAX_TRANSIT_CHANGE) - jitter) / 16;
+            // Hold back twice the jitter; the band between stepping up and
+            // back down keeps the depth from flapping
+            double wanted = jitter * 2;
+            if (wanted >= depth + 1) {
+                depth = (int) Math.min(MAX_DEPTH, Math.floor(wanted));
+            } else if (wanted < depth - 0.5) {
+                depth = (int) Math.floor(wanted + 0.5);
+            }
+        }
+        if (sentMillis > 0) {
+            lastSentMillis = sentMillis;
+            lastArrival = now;
+        }
+    }
+
+    private static boolean sameButtons(Command a, Command b) {
+        return a.moveUp == b.moveUp && a.moveDown == b.moveDown
+                && a.moveLeft == b.moveLeft && a.moveRight == b.moveRight
+                && a.shooting == b.shooting;
+    }
+}
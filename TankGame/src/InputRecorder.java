@@ -0,0 +1,207 @@
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Append-only log of every input GameLogic applied, tick by tick.
+ * Together with the seed in the header this is enough for
+ * MatchReplayer to re-run the match exactly.
+ *
+ * Layout: MAGIC, VERSION, seed, buff count, tick rate, the map (size
+ * and walls), then a stream of records.
+ * A TICK record (delta from the previous TICK) precedes the events
+ * applied on that tick; END carries the final tick count.
+ */
+public class InputRecorder {
+
+    public static final int MAGIC = 0x544B524C; // "TKRL"
+    public static final int VERSION = 11;
+
+    // Record kinds
+    static final int TICK = 0;
+    static final int JOIN = 1;
+    static final int LEAVE = 2;
+    static final int LOGIN = 3;
+    static final int COMMAND = 4;
+    static final int END = 5;
+    static final int BULLET_CAP = 6;
+    static final int IDLE_SKIP = 7;
+
+    private final DataOutputStream out;
+    private long lastTick = 0;
+    private boolean failed = false;
+
+    /**
+     * Start a log for 'logic', which must not have ticked yet.
+     */
+    public InputRecorder(String path, GameLogic logic) throws IOException {
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path), 1 << 16));
+        out.writeInt(MAGIC);
+        out.writeShort(VERSION);
+        out.writeLong(logic.getSeed());
+        WireCodec.writeVarInt(out, logic.getBuffCount());
+        WireCodec.writeVarInt(out, logic.getTickRate());
+        ArenaMap map = logic.getMap();
+        WireCodec.writeVarInt(out, map.width);
+        WireCodec.writeVarInt(out, map.height);
+        int[] walls = map.getWalls();
+        WireCodec.writeVarInt(out, walls.length);
+        for (int v : walls) WireCodec.writeSignedVarInt(out, v);
+    }
+
+    /**
+     * Reads the header written above and builds a fresh GameLogic
+     * set up the same way as the recorded one.
+     */
+    public static GameLogic readHeader(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not an input recording");
+        }
+        int version = in.readUnsignedShort();
+        if (version != VERSION) {
+            throw new IOException("Unsupported recording version " + version);
+        }
+        long seed = in.readLong();
+        int buffCount = WireCodec.readVarInt(in);
+        int tickRate = WireCodec.readVarInt(in);
+        int width = WireCodec.readVarInt(in);
+        int height = WireCodec.readVarInt(in);
+        int[] walls = new int[WireCodec.readVarInt(in)];
+        for (int i = 0; i < walls.length; i++) walls[i] = WireCodec.readSignedVarInt(in);
+        return new GameLogic(seed, buffCount, tickRate, new ArenaMap(width, height, walls));
+    }
+
+    /**
+     * Called from the game thread for each input applied on 'tick'.
+     */
+    public void record(long tick, InputEvent e) {
+        if (failed) return;
+        try {
+            if (tick != lastTick) {
+                out.writeByte(TICK);
+                WireCodec.writeVarInt(out, (int) (tick - lastTick));
+                lastTick = tick;
+            }
+            writeEvent(out, e);
+        } catch (IOException ex) {
+            // Never let a full disk take the match down with it
+            System.out.println("Input recording stopped: " + ex.getMessage());
+            failed = true;
+        }
+    }
+
+    /**
+     * One JOIN, LEAVE, LOGIN, COMMAND, BULLET_CAP or IDLE_SKIP record; also used for the
+     * lockstep input stream (see LockstepRelay).
+     */
+    static void writeEvent(DataOutputStream out, InputEvent e) throws IOException {
+        switch (e.type) {
+            case JOIN:
+                out.writeByte(JOIN);
+                WireCodec.writeVarInt(out, e.playerId);
+                break;
+            case LEAVE:
+                out.writeByte(LEAVE);
+                WireCodec.writeVarInt(out, e.playerId);
+                break;
+            case LOGIN:
+                out.writeByte(LOGIN);
+                WireCodec.writeVarInt(out, e.playerId);
+                out.writeUTF(e.username);
+                break;
+            case COMMAND:
+                out.writeByte(COMMAND);
+                WireCodec.writeVarInt(out, e.playerId);
+                WireCodec.writeCommand(out, e.command);
+                break;
+            case BULLET_CAP:
+                out.writeByte(BULLET_CAP);
+                WireCodec.writeVarInt(out, e.amount);
+                break;
+            case IDLE_SKIP:
+                out.writeByte(IDLE_SKIP);
+                WireCodec.writeVarInt(out, e.amount);
+                break;
+        }
+    }
+
+    /**
+     * Writes the END record and closes the file.
+     */
+    public void close(long finalTick) {
+        try {
+            if (!failed) {
+                out.writeByte(END);
+                WireCodec.writeVarInt(out, (int) (finalTick - lastTick));
+            }
+            out.close();
+        } catch (IOException e) {
+            System.out.println("Failed to close input recording: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Feeds a recorded log back into 'logic', calling update() once per
+     * recorded tick. 'tickHook' (may be null) runs after every update.
+     * Returns the number of ticks simulated.
+     */
+    public static long replay(DataInputStream in, GameLogic logic, Runnable tickHook) throws IOException {
+        return replay(in, logic, tickHook, 0);
+    }
+
+    /**
+     * replay() of a stream whose deltas start at 'startTick' instead of 0.
+     */
+    public static long replay(DataInputStream in, GameLogic logic, Runnable tickHook, long startTick)
+            throws IOException {
+        long tick = startTick;
+        while (true) {
+            int kind;
+            try {
+                kind = in.readUnsignedByte();
+            } catch (EOFException e) {
+                // Recording was cut short (crash); replay what we have
+                return tick;
+            }
+            switch (kind) {
+                case TICK:
+                case END:
+                    long target = tick + WireCodec.readVarInt(in);
+                    while (logic.getTick() < target) {
+                        logic.update();
+                        if (tickHook != null) tickHook.run();
+                    }
+                    tick = target;
+                    if (kind == END) return tick;
+                    break;
+                case JOIN:
+                    logic.addPlayer(WireCodec.readVarInt(in));
+                    break;
+                case LEAVE:
+                    logic.removePlayer(WireCodec.readVarInt(in));
+                    break;
+                case LOGIN:
+                    int id = WireCodec.readVarInt(in);
+                    LoginAttempt attempt = new LoginAttempt();
+                    attempt.username = in.readUTF();
+                    logic.handleLoginAttempt(id, attempt);
+                    break;
+                case COMMAND:
+                    int playerId = WireCodec.readVarInt(in);
+                    logic.handleCommand(playerId, WireCodec.readCommand(in));
+                    break;
+                case BULLET_CAP:
+                    logic.setBulletCap(WireCodec.readVarInt(in));
+                    break;
+                case IDLE_SKIP:
+                    logic.skipIdle(WireCodec.readVarInt(in));
+                    break;
+                default:
+                    throw new IOException("Unknown record kind " + kind);
+            }
+        }
+    }
+}
@@ -0,0 +1,122 @@
+import java.util.Arrays;
+
+/**
+ * int -> int hash map with open addressing (linear probing) over two
+ * flat arrays, so lookups never box or allocate. Removal shifts later
+ * entries of the probe run back instead of leaving tombstones, so a
+ * map with lots of churn (bullets) doesn't slow down over time.
+ *
+ * Keys may be anything but Integer.MIN_VALUE; get() returns -1 for a
+ * missing key, so values are expected to be non-negative (indices).
+ */
+public final class IntIndexMap {
+
+    private static final int FREE = Integer.MIN_VALUE;
+
+    private int[] keys;
+    private int[] values;
+    private int mask;
+    private int size;
+
+    public IntIndexMap(int expected) {
+        int capacity = 8;
+        while (capacity < expected * 2) capacity <<= 1;
+        allocate(capacity);
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        Arrays.fill(keys, FREE);
+        values = new int[capacity];
+        mask = capacity - 1;
+    }
+
+    private int slot(int key) {
+        // Fibonacci hashing spreads sequential ids over the table
+        int h = key * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int get(int key) {
+        int i = slot(key);
+        while (true) {
+            int k = keys[i];
+            if (k == key) return values[i];
+            if (k == FREE) return -1;
+            i = (i + 1) & mask;
+        }
+    }
+
+    public void put(int key, int value) {
+        if (key == FREE) throw new IllegalArgumentException("Reserved key " + key);
+        int i = slot(key);
+        while (true) {
+            int k = keys[i];
+            if (k == key) {
+                values[i] = value;
+                return;
+            }
+            if (k == FREE) {
+                keys[i] = key;
+                values[i] = value;
+                // Keep the load factor at or under one half
+                if (++size * 2 > keys.length) grow();
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+    }
+
+    /**
+     * Removes 'key'; returns its value, or -1 if it wasn't there.
+     */
+    public int remove(int key) {
+        int i = slot(key);
+        while (true) {
+            int k = keys[i];
+            if (k == FREE) return -1;
+            if (k == key) break;
+            i = (i + 1) & mask;
+        }
+        int removed = values[i];
+        size--;
+
+        // Backward shift: pull later entries of this probe run into the
+        // hole unless that would move them before their home slot
+        int hole = i;
+        int j = i;
+        while (true) {
+            j = (j + 1) & mask;
+            int k = keys[j];
+            if (k == FREE) break;
+            int home = slot(k);
+            // Entry at j may fill the hole if its home isn't in (hole, j]
+            if (((j - home) & mask) >= ((j - hole) & mask)) {
+                keys[hole] = k;
+                values[hole] = values[j];
+                hole = j;
+            }
+        }
+        keys[hole] = FREE;
+        return removed;
+    }
+
+    public void clear() {
+        Arrays.fill(keys, FREE);
+        size = 0;
+    }
+
+    private void grow() {
+        int[] oldKeys = keys;
+        int[] oldValues = values;
+        allocate(oldKeys.length * 2);
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != FREE) put(oldKeys[i], oldValues[i]);
+        }
+    }
+}
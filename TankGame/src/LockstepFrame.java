@@ -0,0 +1,15 @@
+import java.io.Serializable;
+
+/**
+ * Lockstep mode: the inputs the server applied on one tick, as
+ * InputRecorder records closed by END. Every so often it also carries
+ * the server's stateHash() after that tick.
+ */
+public class LockstepFrame implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    public long tick;
+    public byte[] inputs;
+    public boolean hashed;
+    public long stateHash;
+}
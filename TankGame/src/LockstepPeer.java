@@ -0,0 +1,59 @@
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+
+/**
+ * Client side of lockstep mode (see LockstepRelay): a GameLogic of our
+ * own, built from a LockstepStart and stepped by LockstepFrames. Used
+ * from the client's network thread only.
+ */
+public class LockstepPeer {
+
+    private GameLogic logic;
+    private long desyncs = 0;
+
+    /**
+     * Build the logic and replay the match up to the server's tick.
+     */
+    public void start(LockstepStart s) throws IOException {
+        ArenaMap map = new ArenaMap(s.map.width, s.map.height, s.map.walls);
+        GameLogic fresh = new GameLogic(s.seed, s.buffCount, s.tickRate, map);
+        InputRecorder.replay(new DataInputStream(new ByteArrayInputStream(s.inputs)), fresh, null);
+        if (fresh.getTick() != s.tick) {
+            throw new IOException("Lockstep start replayed to tick " + fresh.getTick() + ", not " + s.tick);
+        }
+        logic = fresh;
+        System.out.println("Lockstep: caught up to tick " + s.tick);
+    }
+
+    public boolean isStarted() {
+        return logic != null;
+    }
+
+    /**
+     * Run the frame's tick. Returns false if we're out of step with the
+     * server; the caller should ask for a fresh start, frames are
+     * ignored until it comes.
+     */
+    public boolean apply(LockstepFrame f) throws IOException {
+        if (logic == null || f.tick < logic.getTick()) return true; // from before our start
+        if (f.tick > logic.getTick()) return desync("missed ticks " + logic.getTick() + ".." + (f.tick - 1));
+
+        InputRecorder.replay(new DataInputStream(new ByteArrayInputStream(f.inputs)), logic, null, f.tick);
+        if (f.hashed && logic.stateHash() != f.stateHash) {
+            return desync("state hash differs after tick " + f.tick);
+        }
+        return true;
+    }
+
+    private boolean desync(String why) {
+        desyncs++;
+        System.out.println("Lockstep desync #" + desyncs + ": " + why);
+        logic = null;
+        return false;
+    }
+
+    public GameState buildGameState() {
+        return logic.buildGameState();
+    }
+}
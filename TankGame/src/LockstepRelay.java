@@ -0,0 +1,118 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Server side of lockstep mode (-Dtankgame.lockstep=true), meant for
+ * small private matches: clients get the inputs the server applied each
+ * tick instead of snapshots and run the same GameLogic themselves, which
+ * costs a few bytes per player per tick instead of whole states. The
+ * server still simulates as the referee; its state hash goes out once a
+ * second so peers notice when they drift.
+ *
+ * Every input since tick 0 is kept so a client joining late can replay
+ * the match up to now, up to a size limit. A window of recent inputs is
+ * no use without the exact state at its start, and checkpoints leave
+ * out bullets and hit history, so past the limit the history is dropped
+ * instead: clients already in step carry on, while ones that join or
+ * lose step after that are sent snapshots. Game thread only.
+ */
+public class LockstepRelay implements GameLogic.InputListener {
+
+    // Null once the history outgrew historyLimit
+    private ByteArrayOutputStream historyBytes = new ByteArrayOutputStream(1 << 12);
+    private DataOutputStream history = new DataOutputStream(historyBytes);
+    private long historyTick = 0;
+    private final int historyLimit;
+
+    private final ByteArrayOutputStream frameBytes = new ByteArrayOutputStream(256);
+    private final DataOutputStream frame = new DataOutputStream(frameBytes);
+    // Tick the current frame's inputs were applied on; the clock may jump
+    // past it in the same update (IDLE_SKIP), so it's kept, not derived
+    private long frameTick = -1;
+
+    private final int hashInterval;
+
+    public LockstepRelay(int tickRate, int historyLimit) {
+        this.hashInterval = tickRate;
+        this.historyLimit = historyLimit;
+    }
+
+    @Override
+    public void onInput(long tick, InputEvent e) {
+        try {
+            if (history != null) {
+                if (tick != historyTick) {
+                    history.writeByte(InputRecorder.TICK);
+                    WireCodec.writeVarInt(history, (int) (tick - historyTick));
+                    historyTick = tick;
+                }
+                InputRecorder.writeEvent(history, e);
+                if (historyBytes.size() > historyLimit) {
+                    System.out.println("Lockstep input history passed " + historyLimit / 1024
+                            + " KB at tick " + tick + "; later joiners get snapshots");
+                    historyBytes = null;
+                    history = null;
+                }
+            }
+            InputRecorder.writeEvent(frame, e);
+            frameTick = tick;
+        } catch (IOException ex) {
+            throw new IllegalStateException(ex); // can't happen writing to memory
+        }
+    }
+
+    /**
+     * The frame for the tick 'logic' just simulated. Call once after
+     * every update().
+     */
+    public LockstepFrame finishTick(GameLogic logic) {
+        LockstepFrame f = new LockstepFrame();
+        f.tick = frameTick >= 0 ? frameTick : logic.getTick() - 1;
+        frameTick = -1;
+        try {
+            frame.writeByte(InputRecorder.END);
+            WireCodec.writeVarInt(frame, 1);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        f.inputs = frameBytes.toByteArray();
+        frameBytes.reset();
+        if (logic.getTick() % hashInterval == 0) {
+            f.hashed = true;
+            f.stateHash = logic.stateHash();
+        }
+        return f;
+    }
+
+    /**
+     * Whether start() can still catch a client up, i.e. the history is kept.
+     */
+    public boolean canStart() {
+        return history != null;
+    }
+
+    /**
+     * A start for a client joining now, between two ticks. Only while
+     * canStart().
+     */
+    public LockstepStart start(GameLogic logic, MapData map) {
+        LockstepStart s = new LockstepStart();
+        s.seed = logic.getSeed();
+        s.buffCount = logic.getBuffCount();
+        s.tickRate = logic.getTickRate();
+        s.map = map;
+        s.tick = logic.getTick();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(historyBytes.size() + 8);
+        try {
+            historyBytes.writeTo(bytes);
+            DataOutputStream end = new DataOutputStream(bytes);
+            end.writeByte(InputRecorder.END);
+            WireCodec.writeVarInt(end, (int) (s.tick - historyTick));
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        s.inputs = bytes.toByteArray();
+        return s;
+    }
+}
@@ -0,0 +1,21 @@
+import java.io.Serializable;
+
+/**
+ * Lockstep mode: everything a client needs to build the server's
+ * GameLogic and catch up to it, i.e. the setup and every input applied
+ * so far (InputRecorder records, ending with END at 'tick'). LockstepFrames
+ * for 'tick' onward follow.
+ *
+ * A client sends an empty one back to ask for a fresh start after a
+ * desync.
+ */
+public class LockstepStart implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    public long seed;
+    public int buffCount;
+    public int tickRate;
+    public MapData map;
+    public long tick;
+    public byte[] inputs;
+}
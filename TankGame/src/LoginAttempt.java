@@ -3,4 +3,24 @@ import java.io.Serializable;
 public class LoginAttempt implements Serializable {
     public String username;
     public boolean accessAllowed;
+
+    // Set by the client if it can inflate compressed snapshots
+    public boolean compressionSupported;
+
+    // Set by the server if it offers the UDP snapshot channel
+    public int udpPort;
+    public long udpToken;
+
+    // Set by the server on an accepted login: the id the client plays as
+    // and the token that gets it back into its slot after a dropped
+    // connection. A client sends the token back to reconnect.
+    public int playerId;
+    public long reconnectToken;
+
+    // Set by the server when access isn't allowed: why, for the player
+    public String refusal;
+
+    // Sent instead of a player id when the server refuses a connection
+    // outright; the refusing LoginAttempt follows without being asked
+    public static final int REFUSED = -1;
 }
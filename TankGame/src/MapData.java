@@ -0,0 +1,13 @@
+import java.io.Serializable;
+
+/**
+ * The arena's static geometry, sent to a client once after login so
+ * snapshots never have to carry it.
+ */
+public class MapData implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    public int width, height;
+    // x y w h per wall
+    public int[] walls;
+}
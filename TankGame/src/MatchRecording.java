@@ -0,0 +1,189 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes every tick's snapshot of a match to a directory so it can be
+ * watched again with ReplayViewer.
+ *
+ * Snapshots go into fixed-size memory-mapped segment files
+ * (seg-00000.dat, ...). index.dat holds a header (ending with the
+ * arena's MapData) followed by one fixed-size entry per tick, so
+ * finding any tick is a single lookup.
+ * Every snapshot is a full state, so every indexed tick is a keyframe.
+ *
+ * The game thread only calls offer(); encoding and writing happen in
+ * batches on a background thread.
+ */
+public class MatchRecording implements SnapshotSink {
+
+    public static final int INDEX_MAGIC = 0x544B4D49; // "TKMI"
+    public static final int INDEX_VERSION = 3;
+    // magic, version, tick rate, first tick, map length; then the map
+    public static final int INDEX_HEADER_SIZE = 4 + 2 + 2 + 8 + 4;
+    // segment (int), offset (int), length (int); length 0 = tick missing
+    public static final int INDEX_ENTRY_SIZE = 12;
+
+    private static final int SEGMENT_SIZE = 32 << 20;
+    private static final int QUEUE_CAPACITY = 256;
+
+    private final File dir;
+    private final int tickRate;
+    private final byte[] map;
+    private final BlockingQueue<GameState> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final Thread writer;
+    private volatile boolean running = true;
+
+    private long dropped = 0; // game thread only
+
+    // Writer thread state
+    private final FileChannel indexChannel;
+    private final ByteBuffer indexBatch = ByteBuffer.allocate(INDEX_ENTRY_SIZE * QUEUE_CAPACITY);
+    private long nextTick = -1;
+    private int segmentNumber = -1;
+    private RandomAccessFile segmentFile;
+    private MappedByteBuffer segment;
+    private final WireCodec.FrameBuffer frame = new WireCodec.FrameBuffer(8192);
+
+    public MatchRecording(String dirPath, int tickRate, MapData map) throws IOException {
+        this.tickRate = tickRate;
+        this.map = WireCodec.encodeMapData(map);
+        dir = new File(dirPath);
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create recording directory " + dirPath);
+        }
+        indexChannel = new RandomAccessFile(new File(dir, "index.dat"), "rw").getChannel();
+        indexChannel.truncate(0);
+
+        writer = new Thread(this::writeLoop, "match-recording");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Hand a finished snapshot to the recorder. Never blocks; if the
+     * writer falls behind the snapshot is dropped and left as a gap.
+     */
+    @Override
+    public void offer(GameState state) {
+        if (!queue.offer(state)) dropped++;
+    }
+
+    /**
+     * Flushes what is queued and closes the files.
+     */
+    @Override
+    public void close() {
+        running = false;
+        try {
+            writer.join(5000);
+        } catch (InterruptedException ignored) {}
+        if (dropped > 0) {
+            System.out.println("Match recording dropped " + dropped + " snapshots.");
+        }
+    }
+
+    private void writeLoop() {
+        List<GameState> batch = new ArrayList<>(QUEUE_CAPACITY);
+        try {
+            while (running || !queue.isEmpty()) {
+                GameState first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) continue;
+                batch.add(first);
+                queue.drainTo(batch);
+
+                for (GameState gs : batch) {
+                    writeSnapshot(gs);
+                }
+                batch.clear();
+
+                indexBatch.flip();
+                while (indexBatch.hasRemaining()) indexChannel.write(indexBatch);
+                indexBatch.clear();
+            }
+        } catch (IOException | InterruptedException e) {
+            System.out.println("Match recording stopped: " + e.getMessage());
+        } finally {
+            closeSegment();
+            try {
+                indexChannel.close();
+            } catch (IOException ignored) {}
+        }
+    }
+
+    private void writeSnapshot(GameState gs) throws IOException {
+        // Header carries the first recorded tick, so it is written lazily
+        if (nextTick < 0) {
+            ByteBuffer header = ByteBuffer.allocate(INDEX_HEADER_SIZE + map.length);
+            header.putInt(INDEX_MAGIC).putShort((short) INDEX_VERSION)
+                    .putShort((short) tickRate).putLong(gs.tick)
+                    .putInt(map.length).put(map);
+            header.flip();
+            while (header.hasRemaining()) indexChannel.write(header);
+            nextTick = gs.tick;
+        }
+        if (gs.tick < nextTick) return; // duplicate or out of order
+
+        frame.reset();
+        WireCodec.writeGameState(frame.data, gs);
+        int length = frame.size();
+
+        if (segment == null || segment.remaining() < length) {
+            openSegment(segmentNumber + 1, length);
+        }
+        int offset = segment.position();
+        segment.put(frame.array(), 0, length);
+
+        // Dropped ticks stay in the index with length 0
+        while (nextTick < gs.tick) {
+            putIndexEntry(0, 0, 0);
+            nextTick++;
+        }
+        putIndexEntry(segmentNumber, offset, length);
+        nextTick++;
+    }
+
+    private void putIndexEntry(int seg, int offset, int length) throws IOException {
+        if (!indexBatch.hasRemaining()) {
+            indexBatch.flip();
+            while (indexBatch.hasRemaining()) indexChannel.write(indexBatch);
+            indexBatch.clear();
+        }
+        indexBatch.putInt(seg).putInt(offset).putInt(length);
+    }
+
+    private void openSegment(int number, int minSize) throws IOException {
+        closeSegment();
+        segmentNumber = number;
+        segmentFile = new RandomAccessFile(segmentFile(dir, number), "rw");
+        segment = segmentFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0,
+                Math.max(SEGMENT_SIZE, minSize));
+    }
+
+    private void closeSegment() {
+        if (segment == null) return;
+        try {
+            segment.force();
+            // Trim the unused tail; may fail while mapped on some platforms
+            segmentFile.getChannel().truncate(segment.position());
+        } catch (IOException ignored) {
+        } finally {
+            try {
+                segmentFile.close();
+            } catch (IOException ignored) {}
+            segment = null;
+        }
+    }
+
+    static File segmentFile(File dir, int number) {
+        return new File(dir, String.format("seg-%05d.dat", number));
+    }
+}
@@ -0,0 +1,136 @@
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Random access to a directory written by MatchRecording.
+ * The index and segments are memory-mapped read-only, so reading
+ * frame N touches only its index entry and its own bytes.
+ */
+public class MatchRecordingReader implements Closeable {
+
+    private final File dir;
+    private final MappedByteBuffer index;
+    private final int frameCount;
+    private final int tickRate;
+    private final long firstTick;
+    private final MapData map;
+    // Where the per-tick entries start, after the header and map
+    private final int entriesOffset;
+
+    private final List<RandomAccessFile> openFiles = new ArrayList<>();
+    private final List<MappedByteBuffer> segments = new ArrayList<>();
+
+    public MatchRecordingReader(String dirPath) throws IOException {
+        dir = new File(dirPath);
+        try (RandomAccessFile indexFile = new RandomAccessFile(new File(dir, "index.dat"), "r")) {
+            long size = indexFile.length();
+            if (size < MatchRecording.INDEX_HEADER_SIZE) {
+                throw new IOException("Recording index is empty: " + dirPath);
+            }
+            index = indexFile.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+        if (index.getInt(0) != MatchRecording.INDEX_MAGIC) {
+            throw new IOException("Not a match recording: " + dirPath);
+        }
+        int version = index.getShort(4);
+        if (version != MatchRecording.INDEX_VERSION) {
+            throw new IOException("Unsupported recording version " + version);
+        }
+        tickRate = index.getShort(6);
+        firstTick = index.getLong(8);
+        int mapLength = index.getInt(16);
+        if (mapLength < 0 || mapLength > index.capacity() - MatchRecording.INDEX_HEADER_SIZE) {
+            throw new IOException("Corrupt recording header: " + dirPath);
+        }
+        byte[] mapBytes = new byte[mapLength];
+        ByteBuffer header = index.duplicate();
+        header.position(MatchRecording.INDEX_HEADER_SIZE);
+        header.get(mapBytes);
+        map = WireCodec.readMapData(new DataInputStream(new ByteArrayInputStream(mapBytes)));
+        entriesOffset = MatchRecording.INDEX_HEADER_SIZE + mapLength;
+        frameCount = (index.capacity() - entriesOffset) / MatchRecording.INDEX_ENTRY_SIZE;
+    }
+
+    public int getFrameCount() {
+        return frameCount;
+    }
+
+    public int getTickRate() {
+        return tickRate;
+    }
+
+    public long getFirstTick() {
+        return firstTick;
+    }
+
+    /**
+     * The arena the match was played in.
+     */
+    public MapData getMap() {
+        return map;
+    }
+
+    /**
+     * Decode frame 'frame' (0-based). Returns null if that tick was not
+     * recorded (the writer dropped it).
+     */
+    public GameState readFrame(int frame) throws IOException {
+        if (frame < 0 || frame >= frameCount) {
+            throw new IndexOutOfBoundsException("Frame " + frame + " of " + frameCount);
+        }
+        int entry = entriesOffset + frame * MatchRecording.INDEX_ENTRY_SIZE;
+        int seg = index.getInt(entry);
+        int offset = index.getInt(entry + 4);
+        int length = index.getInt(entry + 8);
+        if (length == 0) return null;
+
+        ByteBuffer data = segment(seg).duplicate();
+        data.position(offset);
+        byte[] bytes = new byte[length];
+        data.get(bytes);
+        return WireCodec.readGameState(new DataInputStream(new ByteArrayInputStream(bytes)));
+    }
+
+    /**
+     * The nearest frame at or before 'frame' that was recorded, or -1 if
+     * there is none. Ticks can be missing because the writer dropped
+     * them, the server was shedding load, or the arena was idle.
+     */
+    public int recordedAtOrBefore(int frame) {
+        for (int f = Math.min(frame, frameCount - 1); f >= 0; f--) {
+            int entry = entriesOffset + f * MatchRecording.INDEX_ENTRY_SIZE;
+            if (index.getInt(entry + 8) != 0) return f;
+        }
+        return -1;
+    }
+
+    private MappedByteBuffer segment(int number) throws IOException {
+        while (segments.size() <= number) segments.add(null);
+        MappedByteBuffer seg = segments.get(number);
+        if (seg == null) {
+            RandomAccessFile file = new RandomAccessFile(MatchRecording.segmentFile(dir, number), "r");
+            openFiles.add(file);
+            seg = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+            segments.set(number, seg);
+        }
+        return seg;
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (RandomAccessFile file : openFiles) {
+            file.close();
+        }
+        openFiles.clear();
+        segments.clear();
+    }
+}
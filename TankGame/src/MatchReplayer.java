@@ -0,0 +1,78 @@
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Re-runs a recorded match headless, as fast as possible, and prints
+ * tick timing statistics. Used to profile real matches offline:
+ *
+ *   java MatchReplayer match.tkrl [repeats]
+ */
+public class MatchReplayer {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.out.println("Usage: java MatchReplayer <recording> [repeats]");
+            return;
+        }
+        int repeats = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+
+        for (int run = 1; run <= repeats; run++) {
+            replayOnce(args[0], run);
+        }
+    }
+
+    private static void replayOnce(String path, int run) throws IOException {
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(path), 1 << 16))) {
+
+            GameLogic logic = InputRecorder.readHeader(in);
+
+            // Per-tick cost of update() + buildGameState(), like the server's loop
+            TickSamples samples = new TickSamples();
+
+            long wallStart = System.nanoTime();
+            samples.last = wallStart;
+            long ticks = InputRecorder.replay(in, logic, () -> {
+                logic.buildGameState();
+                samples.add(System.nanoTime());
+            });
+            long wall = System.nanoTime() - wallStart;
+
+            printStats(run, ticks, wall, Arrays.copyOf(samples.values, samples.count));
+        }
+    }
+
+    private static class TickSamples {
+        long[] values = new long[1 << 12];
+        int count;
+        long last;
+
+        void add(long now) {
+            if (count == values.length) values = Arrays.copyOf(values, count * 2);
+            values[count++] = now - last;
+            last = now;
+        }
+    }
+
+    private static void printStats(int run, long ticks, long wallNanos, long[] samples) {
+        if (samples.length == 0) {
+            System.out.println("Run " + run + ": recording has no ticks.");
+            return;
+        }
+        long[] sorted = samples.clone();
+        Arrays.sort(sorted);
+        int worstTick = 0;
+        for (int i = 1; i < samples.length; i++) {
+            if (samples[i] > samples[worstTick]) worstTick = i;
+        }
+        System.out.println(String.format(
+                "Run %d: %d ticks in %.1f ms (%.0f ticks/s) | tick us: p50 %.1f  p99 %.1f  max %.1f (tick %d)",
+                run, ticks, wallNanos / 1e6, ticks / (wallNanos / 1e9),
+                sorted[sorted.length / 2] / 1e3,
+                sorted[(int) (sorted.length * 0.99)] / 1e3,
+                sorted[sorted.length - 1] / 1e3, worstTick));
+    }
+}
@@ -0,0 +1,59 @@
+/**
+ * Smoothed round-trip time, jitter and clock offset for one connection,
+ * fed from Ping replies. RTT and jitter use the TCP estimator
+ * (RFC 6298: SRTT and RTTVAR); the offset is the peer's clock minus
+ * ours, smoothed the same way.
+ */
+public class NetStats {
+
+    private double srttMs;
+    private double jitterMs;
+    private double offsetMs;
+    private int samples;
+
+    /**
+     * Record the reply to one of our pings.
+     */
+    public synchronized void onPingReply(Ping pong) {
+        long nowMillis = System.currentTimeMillis();
+        double rtt = (System.nanoTime() - pong.originNanos) / 1e6;
+        // The peer stamped its reply halfway through the round trip (roughly)
+        double offset = pong.replyMillis - (pong.originMillis + nowMillis) / 2.0;
+
+        if (samples == 0) {
+            srttMs = rtt;
+            jitterMs = rtt / 2;
+            offsetMs = offset;
+        } else {
+            jitterMs += (Math.abs(srttMs - rtt) - jitterMs) * 0.25;
+            srttMs += (rtt - srttMs) * 0.125;
+            offsetMs += (offset - offsetMs) * 0.125;
+        }
+        samples++;
+    }
+
+    public synchronized boolean hasSamples() {
+        return samples > 0;
+    }
+
+    public synchronized int getSampleCount() {
+        return samples;
+    }
+
+    public synchronized double getRttMs() {
+        return srttMs;
+    }
+
+    public synchronized double getJitterMs() {
+        return jitterMs;
+    }
+
+    public synchronized double getClockOffsetMs() {
+        return offsetMs;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("rtt %.1f ms, jitter %.1f ms, offset %+.1f ms", srttMs, jitterMs, offsetMs);
+    }
+}
@@ -0,0 +1,70 @@
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends datagrams, optionally through simulated packet loss, latency and
+ * jitter so the UDP path can be tested on a single host:
+ *
+ *   -Dtankgame.sim.loss=0.05 -Dtankgame.sim.latencyMs=80 -Dtankgame.sim.jitterMs=20
+ *
+ * Set the same flags on the server and the client to degrade both
+ * directions. Without them packets are sent straight away.
+ */
+public class NetworkSimulator {
+
+    private final DatagramSocket socket;
+    private final double loss;
+    private final int latencyMs;
+    private final int jitterMs;
+    private final Random random = new Random();
+    private ScheduledExecutorService delayer;
+
+    public NetworkSimulator(DatagramSocket socket) {
+        this.socket = socket;
+        this.loss = Double.parseDouble(System.getProperty("tankgame.sim.loss", "0"));
+        this.latencyMs = Integer.getInteger("tankgame.sim.latencyMs", 0);
+        this.jitterMs = Integer.getInteger("tankgame.sim.jitterMs", 0);
+        if (latencyMs > 0 || jitterMs > 0) {
+            delayer = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "net-sim");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        if (isActive()) {
+            System.out.println("Network simulator: loss " + loss + ", latency " + latencyMs
+                    + " ms, jitter " + jitterMs + " ms");
+        }
+    }
+
+    public boolean isActive() {
+        return loss > 0 || delayer != null;
+    }
+
+    /**
+     * Send 'packet', which must not be reused by the caller afterwards
+     * when a delay is configured.
+     */
+    public void send(DatagramPacket packet) throws IOException {
+        if (loss > 0 && random.nextDouble() < loss) return;
+        if (delayer == null) {
+            socket.send(packet);
+            return;
+        }
+        long delay = latencyMs + (jitterMs > 0 ? random.nextInt(jitterMs + 1) : 0);
+        delayer.schedule(() -> {
+            try {
+                socket.send(packet);
+            } catch (IOException ignored) {}
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    public void close() {
+        if (delayer != null) delayer.shutdownNow();
+    }
+}
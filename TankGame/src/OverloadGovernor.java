@@ -0,0 +1,110 @@
+/**
+ * Keeps the match playable when the game loop can't keep up: instead of
+ * every tick running late (slow motion for everybody), it sheds work in
+ * steps, cheapest for the players first.
+ *
+ *   1  snapshots go out every other tick
+ *   2  spectator feeds and match recording get every fourth tick
+ *   3  bullets in flight are capped per player
+ *   4  new connections are refused
+ *
+ * Driven by how long each tick's work takes against the frame time,
+ * smoothed. It steps up when the load stays high, and back down only
+ * when it has stayed well under budget for a while, so it doesn't flap
+ * between two levels.
+ */
+public class OverloadGovernor {
+
+    public static final int NORMAL = 0;
+    public static final int SNAPSHOTS_HALVED = 1;
+    public static final int SPECTATORS_SLOWED = 2;
+    public static final int BULLETS_CAPPED = 3;
+    public static final int JOINS_REFUSED = 4;
+
+    private static final String[] LEVEL_NAMES = {
+            "normal", "snapshots halved", "spectator feeds slowed",
+            "bullets capped", "new joins refused"};
+
+    // Load is the smoothed share of the frame time a tick's work takes
+    private static final double STEP_UP_LOAD = 0.9;
+    private static final double STEP_DOWN_LOAD = 0.5;
+    private static final double SMOOTHING = 0.05;
+    // How long a load must hold before the next step, in seconds
+    private static final double STEP_UP_SECONDS = 1;
+    private static final double STEP_DOWN_SECONDS = 5;
+
+    private final long frameNanos;
+    private final int stepUpTicks;
+    private final int stepDownTicks;
+
+    private int level = NORMAL;
+    private double load = 0;
+    // Ticks the load has been above STEP_UP_LOAD / below STEP_DOWN_LOAD
+    private int highTicks = 0;
+    private int lowTicks = 0;
+
+    public OverloadGovernor(int tickRate) {
+        this.frameNanos = 1_000_000_000L / tickRate;
+        this.stepUpTicks = (int) Math.ceil(tickRate * STEP_UP_SECONDS);
+        this.stepDownTicks = (int) Math.ceil(tickRate * STEP_DOWN_SECONDS);
+    }
+
+    /**
+     * Game thread, after each tick: how long its work took. Returns true
+     * if the level changed.
+     */
+    public boolean update(long workNanos) {
+        load += ((double) workNanos / frameNanos - load) * SMOOTHING;
+        if (load > STEP_UP_LOAD) {
+            lowTicks = 0;
+            if (++highTicks >= stepUpTicks && level < JOINS_REFUSED) {
+                level++;
+                highTicks = 0;
+                return true;
+            }
+        } else if (load < STEP_DOWN_LOAD) {
+            highTicks = 0;
+            if (++lowTicks >= stepDownTicks && level > NORMAL) {
+                level--;
+                lowTicks = 0;
+                return true;
+            }
+        } else {
+            highTicks = 0;
+            lowTicks = 0;
+        }
+        return false;
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    /**
+     * Ticks between snapshots to clients.
+     */
+    public int snapshotInterval() {
+        return level >= SNAPSHOTS_HALVED ? 2 : 1;
+    }
+
+    /**
+     * Ticks between snapshots to spectator feeds and recordings.
+     */
+    public int sinkInterval() {
+        return level >= SPECTATORS_SLOWED ? 4 : 1;
+    }
+
+    public boolean capsBullets() {
+        return level >= BULLETS_CAPPED;
+    }
+
+    public boolean refusesJoins() {
+        return level >= JOINS_REFUSED;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("level %d (%s), tick load %.0f%% of %.1f ms",
+                level, LEVEL_NAMES[level], load * 100, frameNanos / 1e6);
+    }
+}
@@ -0,0 +1,31 @@
+import java.io.Serializable;
+
+/**
+ * Timestamped ping, sent both ways over the TCP connection. The
+ * receiver echoes it back with reply = true and its own wall clock,
+ * and the sender turns that into an RTT and clock offset sample.
+ */
+public class Ping implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    public long originNanos;   // sender's System.nanoTime()
+    public long originMillis;  // sender's wall clock
+    public long replyMillis;   // responder's wall clock
+    public boolean reply;
+
+    public static Ping create() {
+        Ping ping = new Ping();
+        ping.originNanos = System.nanoTime();
+        ping.originMillis = System.currentTimeMillis();
+        return ping;
+    }
+
+    public Ping toReply() {
+        Ping pong = new Ping();
+        pong.originNanos = originNanos;
+        pong.originMillis = originMillis;
+        pong.replyMillis = System.currentTimeMillis();
+        pong.reply = true;
+        return pong;
+    }
+}
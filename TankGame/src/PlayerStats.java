@@ -0,0 +1,29 @@
+/**
+ * All-time totals of one username, kept by PlayerStatsStore.
+ */
+public class PlayerStats {
+    public final String username;
+    public int kills;
+    public int deaths;
+    public long damage;     // dealt
+    public long playMillis;
+
+    public PlayerStats(String username) {
+        this.username = username;
+    }
+
+    PlayerStats copy() {
+        PlayerStats s = new PlayerStats(username);
+        s.kills = kills;
+        s.deaths = deaths;
+        s.damage = damage;
+        s.playMillis = playMillis;
+        return s;
+    }
+
+    @Override
+    public String toString() {
+        return username + ": " + kills + " kills, " + deaths + " deaths, " + damage + " damage, "
+                + (playMillis / 60000) + " min";
+    }
+}
@@ -0,0 +1,239 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Kills, deaths, damage and play time per username, across sessions
+ * (-Dtankgame.statsFile). The game thread only offers small updates to
+ * a queue; a writer thread applies them in batches to the in-memory
+ * index and appends each changed player's new totals to the log.
+ *
+ * The log is append-only: MAGIC, VERSION, then one record of totals per
+ * change, the last one for a name wins. Once it holds many more records
+ * than players it is rewritten with one record each (compaction).
+ * The leaderboard is a TreeSet kept next to the index, so top(n) never
+ * scans every player.
+ */
+public class PlayerStatsStore implements GameLogic.StatsListener {
+
+    public static final int MAGIC = 0x544B5354; // "TKST"
+    public static final int VERSION = 1;
+
+    // Compact when the log has this many times more records than players
+    private static final int COMPACT_RATIO = 4;
+    private static final int MIN_COMPACT_RECORDS = 1024;
+
+    private static final Comparator<PlayerStats> BY_KILLS = (a, b) -> {
+        if (a.kills != b.kills) return Integer.compare(b.kills, a.kills);
+        return a.username.compareTo(b.username);
+    };
+
+    private final File file;
+    private final BlockingQueue<Update> queue = new LinkedBlockingQueue<>();
+    private final Thread writer;
+    private volatile boolean running = true;
+
+    // Guarded by 'this'; written by the writer thread only
+    private final Map<String, PlayerStats> index = new HashMap<>();
+    private final TreeSet<PlayerStats> leaderboard = new TreeSet<>(BY_KILLS);
+
+    // Writer thread state
+    private DataOutputStream log;
+    private int logRecords;
+
+    private static final class Update {
+        final String username;
+        final int kills, deaths;
+        final long damage, playMillis;
+
+        Update(String username, int kills, int deaths, long damage, long playMillis) {
+            this.username = username;
+            this.kills = kills;
+            this.deaths = deaths;
+            this.damage = damage;
+            this.playMillis = playMillis;
+        }
+    }
+
+    public PlayerStatsStore(String path) throws IOException {
+        file = new File(path);
+        if (file.exists()) load();
+        // Also drops a record a crash may have cut short at the end
+        compact();
+
+        writer = new Thread(this::writeLoop, "player-stats");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    // --- Game thread: just queue offers -----------------------------------
+
+    @Override
+    public void onDamage(String shooter, int damage) {
+        queue.offer(new Update(shooter, 0, 0, damage, 0));
+    }
+
+    @Override
+    public void onKill(String killer, String victim) {
+        if (killer != null) queue.offer(new Update(killer, 1, 0, 0, 0));
+        if (victim != null) queue.offer(new Update(victim, 0, 1, 0, 0));
+    }
+
+    @Override
+    public void onSessionEnd(String username, long playMillis) {
+        queue.offer(new Update(username, 0, 0, 0, playMillis));
+    }
+
+    // --- Reads, any thread ------------------------------------------------
+
+    public synchronized PlayerStats get(String username) {
+        PlayerStats s = index.get(username);
+        return s == null ? null : s.copy();
+    }
+
+    /**
+     * The 'count' players with the most kills of all time.
+     */
+    public synchronized List<PlayerStats> top(int count) {
+        List<PlayerStats> top = new ArrayList<>(count);
+        for (PlayerStats s : leaderboard) {
+            if (top.size() == count) break;
+            top.add(s.copy());
+        }
+        return top;
+    }
+
+    /**
+     * Writes out what is queued and closes the log.
+     */
+    public void close() {
+        running = false;
+        try {
+            writer.join(5000);
+        } catch (InterruptedException ignored) {}
+    }
+
+    // --- Writer thread ----------------------------------------------------
+
+    private void writeLoop() {
+        List<Update> batch = new ArrayList<>();
+        Set<PlayerStats> changed = new HashSet<>();
+        try {
+            while (running || !queue.isEmpty()) {
+                Update first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) continue;
+                batch.add(first);
+                queue.drainTo(batch);
+
+                synchronized (this) {
+                    for (Update u : batch) changed.add(apply(u));
+                }
+                for (PlayerStats s : changed) writeRecord(log, s);
+                log.flush();
+                logRecords += changed.size();
+                batch.clear();
+                changed.clear();
+
+                if (logRecords > Math.max(MIN_COMPACT_RECORDS, COMPACT_RATIO * index.size())) compact();
+            }
+        } catch (IOException | InterruptedException e) {
+            System.out.println("Player stats stopped: " + e.getMessage());
+        } finally {
+            try {
+                if (log != null) log.close();
+            } catch (IOException ignored) {}
+        }
+    }
+
+    private PlayerStats apply(Update u) {
+        PlayerStats s = index.get(u.username);
+        if (s == null) {
+            s = new PlayerStats(u.username);
+            index.put(u.username, s);
+        } else if (u.kills != 0) {
+            leaderboard.remove(s); // its sort key is about to change
+        }
+        s.kills += u.kills;
+        s.deaths += u.deaths;
+        s.damage += u.damage;
+        s.playMillis += u.playMillis;
+        leaderboard.add(s);
+        return s;
+    }
+
+    /**
+     * Rewrite the log with one record per player.
+     */
+    private void compact() throws IOException {
+        if (log != null) log.close();
+        File temp = new File(file.getPath() + ".tmp");
+        List<PlayerStats> all;
+        synchronized (this) {
+            all = new ArrayList<>(index.size());
+            for (PlayerStats s : index.values()) all.add(s.copy());
+        }
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+            for (PlayerStats s : all) writeRecord(out, s);
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        logRecords = all.size();
+        log = openLog(true);
+    }
+
+    private DataOutputStream openLog(boolean append) throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, append), 1 << 14));
+    }
+
+    private static void writeRecord(DataOutputStream out, PlayerStats s) throws IOException {
+        out.writeUTF(s.username);
+        WireCodec.writeVarInt(out, s.kills);
+        WireCodec.writeVarInt(out, s.deaths);
+        WireCodec.writeVarLong(out, s.damage);
+        WireCodec.writeVarLong(out, s.playMillis);
+    }
+
+    private void load() throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+            if (in.readInt() != MAGIC) throw new IOException(file + " is not a player stats log");
+            int version = in.readUnsignedShort();
+            if (version != VERSION) throw new IOException("Unsupported player stats version " + version);
+            while (true) {
+                PlayerStats s;
+                try {
+                    s = new PlayerStats(in.readUTF());
+                    s.kills = WireCodec.readVarInt(in);
+                    s.deaths = WireCodec.readVarInt(in);
+                    s.damage = WireCodec.readVarLong(in);
+                    s.playMillis = WireCodec.readVarLong(in);
+                } catch (EOFException e) {
+                    break; // end, or a record cut short by a crash
+                }
+                index.put(s.username, s);
+                logRecords++;
+            }
+        }
+        leaderboard.addAll(index.values());
+    }
+}
@@ -0,0 +1,145 @@
+import javax.swing.*;
+import java.awt.*;
+import java.io.IOException;
+
+/**
+ * Plays back a match recorded by MatchRecording in a GamePanel.
+ * The slider seeks straight to any tick; the speed box scales playback.
+ *
+ *   java ReplayViewer <recording dir>
+ */
+public class ReplayViewer extends JFrame {
+
+    private static final double[] SPEEDS = {0.25, 0.5, 1, 2, 4, 8};
+
+    // --- Color Palette (similar to the ServerGUI) ---
+    private static final Color COLOR_BG_DARK   = new Color(0x41436A);
+    private static final Color COLOR_PURPLE    = new Color(0x984063);
+    private static final Color COLOR_PEACH     = new Color(0xFE9677);
+    private static final Color COLOR_WHITE     = Color.WHITE;
+
+    private final MatchRecordingReader reader;
+    private final GamePanel gamePanel = new GamePanel(null);
+    private final JSlider slider;
+    private final JButton playButton;
+    private final JLabel tickLabel;
+    private final JComboBox<String> speedBox;
+
+    // Fractional frame position, advanced by the timer
+    private double position = 0;
+    private int shownFrame = -1;
+    // Recorded frame the picture comes from; differs from shownFrame in gaps
+    private int drawnFrame = -1;
+    private boolean playing = true;
+    private long lastTimerNanos = System.nanoTime();
+
+    public ReplayViewer(MatchRecordingReader reader) {
+        super("Tank Game Replay");
+        this.reader = reader;
+
+        setSize(1280, 760);
+        setLocationRelativeTo(null);
+        setDefaultCloseOperation(EXIT_ON_CLOSE);
+
+        JPanel controls = new JPanel(new BorderLayout(10, 0));
+        controls.setBackground(COLOR_BG_DARK);
+        controls.setBorder(BorderFactory.createEmptyBorder(5, 10, 5, 10));
+
+        playButton = new JButton("Pause");
+        styleButton(playButton);
+        playButton.addActionListener(e -> togglePlaying());
+
+        slider = new JSlider(0, Math.max(0, reader.getFrameCount() - 1), 0);
+        slider.setBackground(COLOR_BG_DARK);
+        slider.addChangeListener(e -> {
+            // Only user drags move the position; timer updates go the other way
+            if (slider.getValueIsAdjusting()) {
+                position = slider.getValue();
+                showFrame(slider.getValue());
+            }
+        });
+
+        speedBox = new JComboBox<>();
+        for (double s : SPEEDS) speedBox.addItem(s + "x");
+        speedBox.setSelectedIndex(2);
+
+        tickLabel = new JLabel();
+        tickLabel.setForeground(COLOR_PEACH);
+        tickLabel.setFont(new Font("SansSerif", Font.BOLD, 14));
+
+        JPanel right = new JPanel(new FlowLayout(FlowLayout.RIGHT, 10, 0));
+        right.setBackground(COLOR_BG_DARK);
+        right.add(tickLabel);
+        right.add(speedBox);
+
+        controls.add(playButton, BorderLayout.WEST);
+        controls.add(slider, BorderLayout.CENTER);
+        controls.add(right, BorderLayout.EAST);
+
+        gamePanel.setMapData(reader.getMap());
+        add(gamePanel, BorderLayout.CENTER);
+        add(controls, BorderLayout.SOUTH);
+
+        showFrame(0);
+        new Timer(1000 / 60, e -> onTimer()).start();
+    }
+
+    private void styleButton(JButton button) {
+        button.setBackground(COLOR_PURPLE);
+        button.setForeground(COLOR_WHITE);
+        button.setFocusPainted(false);
+        button.setFont(new Font("SansSerif", Font.BOLD, 14));
+    }
+
+    private void togglePlaying() {
+        playing = !playing;
+        playButton.setText(playing ? "Pause" : "Play");
+    }
+
+    private void onTimer() {
+        long now = System.nanoTime();
+        double elapsed = (now - lastTimerNanos) / 1e9;
+        lastTimerNanos = now;
+        if (!playing || slider.getValueIsAdjusting()) return;
+
+        double speed = SPEEDS[speedBox.getSelectedIndex()];
+        position += elapsed * reader.getTickRate() * speed;
+        int last = reader.getFrameCount() - 1;
+        if (position >= last) {
+            position = last;
+            togglePlaying();
+        }
+        showFrame((int) position);
+        slider.setValue((int) position);
+    }
+
+    private void showFrame(int frame) {
+        if (frame == shownFrame || frame < 0 || frame >= reader.getFrameCount()) return;
+        shownFrame = frame;
+        // A tick that wasn't recorded shows the last one that was, also
+        // after a seek into the gap
+        int recorded = reader.recordedAtOrBefore(frame);
+        if (recorded >= 0 && recorded != drawnFrame) {
+            try {
+                gamePanel.setGameState(reader.readFrame(recorded));
+                drawnFrame = recorded;
+            } catch (IOException e) {
+                System.out.println("Failed to read frame " + recorded + ": " + e.getMessage());
+            }
+        }
+        tickLabel.setText("Tick " + (reader.getFirstTick() + frame));
+    }
+
+    public static void main(String... args) {
+        if (args.length < 1) {
+            System.out.println("Usage: java ReplayViewer <recording dir>");
+            return;
+        }
+        try {
+            MatchRecordingReader reader = new MatchRecordingReader(args[0]);
+            SwingUtilities.invokeLater(() -> new ReplayViewer(reader).setVisible(true));
+        } catch (IOException e) {
+            System.out.println("Cannot open recording: " + e.getMessage());
+        }
+    }
+}
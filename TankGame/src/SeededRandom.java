@@ -0,0 +1,42 @@
+/**
+ * Small seedable random source (SplitMix64) used by the game logic.
+ * Unlike Math.random() its whole state is a single long, so a match
+ * can be re-run exactly from the seed it was started with.
+ */
+public class SeededRandom {
+    private long state;
+
+    public SeededRandom(long seed) {
+        this.state = seed;
+    }
+
+    public long nextLong() {
+        long z = (state += 0x9E3779B97F4A7C15L);
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Uniform int in [0, bound). bound must be positive.
+     */
+    public int nextInt(int bound) {
+        // 31 random bits scaled into the range, no modulo bias worth caring about here
+        return (int) (((nextLong() >>> 33) * bound) >>> 31);
+    }
+
+    /**
+     * Uniform double in [0, 1).
+     */
+    public double nextDouble() {
+        return (nextLong() >>> 11) * 0x1.0p-53;
+    }
+
+    public long getState() {
+        return state;
+    }
+
+    public void setState(long state) {
+        this.state = state;
+    }
+}
@@ -0,0 +1,100 @@
+/**
+ * Server tunables. Each one can be overridden on the command line
+ * with a -Dtankgame.* system property, e.g.
+ *
+ *   java -Dtankgame.record=match.tkrl -Dtankgame.seed=42 HostJoinWindow
+ */
+public final class ServerConfig {
+
+    private ServerConfig() {}
+
+    // Seed for the game logic's random source
+    public static final long SEED = Long.getLong("tankgame.seed", System.nanoTime());
+
+    // If set, every input is recorded to this file for MatchReplayer
+    public static final String RECORD_FILE = System.getProperty("tankgame.record");
+
+    // If set, every tick's snapshot is recorded here for ReplayViewer
+    public static final String MATCH_DIR = System.getProperty("tankgame.matchDir");
+
+    // Port spectator relays subscribe to, e.g. 12346; unset (0) = no relay
+    // feed. The feed is unauthenticated and carries the whole world every
+    // tick, so only open it where relays are trusted
+    public static final int RELAY_PORT = Integer.getInteger("tankgame.relayPort", 0);
+
+    // UDP port for snapshots and inputs; 0 keeps everything on TCP
+    public static final int UDP_PORT = Integer.getInteger("tankgame.udpPort", 0);
+
+    // Simulation rate in ticks per second; 30 halves the CPU per match.
+    // At least 4, as some chores run every quarter second
+    public static final int TICK_RATE = Math.max(4,
+            Integer.getInteger("tankgame.tickRate", GameLogic.DEFAULT_TICK_RATE));
+
+    // Map file with the arena size and walls; unset = open 1920x1080 arena
+    public static final String MAP_FILE = System.getProperty("tankgame.map");
+
+    // Arena size when no map file is given; maps far larger than the
+    // screen (e.g. 20000x20000) get a following camera on the client
+    public static final int MAP_WIDTH = Integer.getInteger("tankgame.mapWidth", ArenaMap.DEFAULT_WIDTH);
+    public static final int MAP_HEIGHT = Integer.getInteger("tankgame.mapHeight", ArenaMap.DEFAULT_HEIGHT);
+
+    // Threads that cut, encode and send the per-client snapshots after
+    // each tick; 1 does it all on the game thread
+    public static final int ENCODE_THREADS = Integer.getInteger("tankgame.encodeThreads",
+            Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
+
+    // Threads for tank movement and bullet hits in each tick; for arenas
+    // with hundreds of tanks. 1 keeps the tick on the game thread.
+    public static final int TICK_THREADS = Integer.getInteger("tankgame.tickThreads", 1);
+
+    // "virtual" runs client connection threads as virtual threads (Java 21+)
+    public static final String CONNECTION_THREADS =
+            System.getProperty("tankgame.connectionThreads", ConnectionThreads.PLATFORM);
+
+    // Lockstep mode for small private matches: clients get inputs, not
+    // snapshots, and simulate themselves (see LockstepRelay)
+    public static final boolean LOCKSTEP = Boolean.getBoolean("tankgame.lockstep");
+
+    // Lockstep input history kept for late joiners, in KB; past it the
+    // history is dropped and anyone (re)starting after that gets snapshots
+    public static final int LOCKSTEP_HISTORY_KB = Integer.getInteger("tankgame.lockstepHistoryKb", 4096);
+
+    // If set, the match is checkpointed here every CHECKPOINT_SECONDS and
+    // when the server stops, and resumed from it when the server starts
+    public static final String CHECKPOINT_FILE = System.getProperty("tankgame.checkpoint");
+    public static final int CHECKPOINT_SECONDS = Integer.getInteger("tankgame.checkpointSeconds", 10);
+
+    // If set, kills, deaths, damage and play time per username are kept
+    // in this file across sessions (see PlayerStatsStore)
+    public static final String STATS_FILE = System.getProperty("tankgame.statsFile");
+
+    // A player whose connection drops keeps their tank this long, and
+    // gets it back by reconnecting with their token; 0 removes at once
+    public static final int RECONNECT_GRACE_SECONDS = Integer.getInteger("tankgame.reconnectGraceSeconds", 30);
+
+    // Admission control (see AdmissionController): connections waiting to
+    // log in at once, and how long each may take; new connections per
+    // second per address, with bursts up to IP_JOIN_BURST; logged-in
+    // players at most
+    public static final int MAX_HANDSHAKES = Integer.getInteger("tankgame.maxHandshakes", 64);
+    public static final int HANDSHAKE_TIMEOUT_SECONDS = Integer.getInteger("tankgame.handshakeTimeoutSeconds", 10);
+    public static final int IP_JOIN_RATE = Integer.getInteger("tankgame.ipJoinRate", 2);
+    public static final int IP_JOIN_BURST = Integer.getInteger("tankgame.ipJoinBurst", 5);
+    public static final int MAX_PLAYERS = Integer.getInteger("tankgame.maxPlayers", 100);
+
+    // Shed work step by step when ticks overrun (see OverloadGovernor);
+    // OVERLOAD_BULLET_CAP is the bullets per player allowed at level 3
+    public static final boolean OVERLOAD_GOVERNOR =
+            Boolean.parseBoolean(System.getProperty("tankgame.overloadGovernor", "true"));
+    public static final int OVERLOAD_BULLET_CAP = Integer.getInteger("tankgame.overloadBulletCap", 3);
+
+    // With no tank alive and no bullet in flight the game loop sleeps
+    // until a timer is due or an input arrives, waking at least every
+    // IDLE_WAKE_MS, and the clock skips the ticks it slept through
+    public static final boolean HIBERNATE =
+            Boolean.parseBoolean(System.getProperty("tankgame.hibernate", "true"));
+    public static final int IDLE_WAKE_MS = Integer.getInteger("tankgame.idleWakeMs", 1000);
+
+    // Number of buffs lying around the map
+    public static final int BUFF_COUNT = Integer.getInteger("tankgame.buffs", GameLogic.DEFAULT_BUFF_COUNT);
+}
@@ -0,0 +1,40 @@
+import java.util.Arrays;
+import java.util.zip.Deflater;
+
+/**
+ * Deflates encoded snapshots for one connection, primed with
+ * WireCodec's preset dictionary so even the first frame compresses well.
+ *
+ * In streaming mode (TCP) the deflate window carries over between
+ * frames and each frame ends with a sync flush, so consecutive,
+ * near-identical snapshots cost very little. In per-message mode (UDP)
+ * every frame stands alone, since datagrams may be lost or reordered.
+ */
+public class SnapshotCompressor {
+
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    private final boolean perMessage;
+    private byte[] buffer = new byte[8192];
+
+    public SnapshotCompressor(boolean perMessage) {
+        this.perMessage = perMessage;
+        deflater.setDictionary(WireCodec.presetDictionary());
+    }
+
+    public byte[] compress(byte[] input, int length) {
+        if (perMessage) {
+            deflater.reset();
+            deflater.setDictionary(WireCodec.presetDictionary());
+        }
+        deflater.setInput(input, 0, length);
+        int total = 0;
+        while (true) {
+            int n = deflater.deflate(buffer, total, buffer.length - total, Deflater.SYNC_FLUSH);
+            total += n;
+            // A sync flush is complete once it stops filling the buffer
+            if (total < buffer.length) break;
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        }
+        return Arrays.copyOf(buffer, total);
+    }
+}
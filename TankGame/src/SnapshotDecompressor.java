@@ -0,0 +1,52 @@
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Client-side counterpart of SnapshotCompressor, in the same mode.
+ */
+public class SnapshotDecompressor {
+
+    private final Inflater inflater = new Inflater();
+    private final boolean perMessage;
+    private byte[] buffer = new byte[16384];
+    private int length;
+
+    public SnapshotDecompressor(boolean perMessage) {
+        this.perMessage = perMessage;
+    }
+
+    /**
+     * Inflates one frame; the result is in buffer()[0, length()).
+     */
+    public void decompress(byte[] input, int offset, int inputLength) throws IOException {
+        if (perMessage) inflater.reset();
+        inflater.setInput(input, offset, inputLength);
+        length = 0;
+        try {
+            while (true) {
+                if (length == buffer.length) buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                int n = inflater.inflate(buffer, length, buffer.length - length);
+                length += n;
+                if (n == 0) {
+                    if (inflater.needsDictionary()) {
+                        inflater.setDictionary(WireCodec.presetDictionary());
+                    } else if (inflater.needsInput() || inflater.finished()) {
+                        break;
+                    }
+                }
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt compressed snapshot", e);
+        }
+    }
+
+    public byte[] buffer() {
+        return buffer;
+    }
+
+    public int length() {
+        return length;
+    }
+}
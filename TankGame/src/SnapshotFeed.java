@@ -0,0 +1,55 @@
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Upstream snapshot stream for spectator relays. The game thread only
+ * offers the tick's GameState; a background thread encodes it once and
+ * fans the bytes out to every connected SpectatorRelay, so spectators
+ * cost the game server nothing per viewer. Each relay's first frame is
+ * the arena's MapData.
+ */
+public class SnapshotFeed implements SnapshotSink {
+
+    private final BlockingQueue<GameState> queue = new ArrayBlockingQueue<>(8);
+    private final FrameFanout fanout = new FrameFanout();
+    private final Thread encoder;
+    private volatile boolean running = true;
+
+    public SnapshotFeed(int port, MapData map) throws IOException {
+        fanout.setHeader(WireCodec.encodeMapData(map));
+        fanout.listen(port, "relay-feed");
+        encoder = new Thread(this::encodeLoop, "relay-feed-encoder");
+        encoder.setDaemon(true);
+        encoder.start();
+    }
+
+    @Override
+    public void offer(GameState state) {
+        // Relays catch up from any frame, so a dropped one doesn't matter
+        queue.offer(state);
+    }
+
+    private void encodeLoop() {
+        WireCodec.FrameBuffer frame = new WireCodec.FrameBuffer(8192);
+        try {
+            while (running) {
+                GameState gs = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (gs == null || fanout.getSubscriberCount() == 0) continue;
+                frame.reset();
+                WireCodec.writeGameState(frame.data, gs);
+                fanout.publish(Arrays.copyOf(frame.array(), frame.size()));
+            }
+        } catch (IOException | InterruptedException e) {
+            System.out.println("Relay feed stopped: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        fanout.close();
+    }
+}
@@ -0,0 +1,12 @@
+import java.io.Serializable;
+
+/**
+ * A WireCodec-encoded GameState as sent over the TCP connection,
+ * optionally deflated with the connection's SnapshotCompressor.
+ */
+public class SnapshotFrame implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    public byte[] data;
+    public boolean compressed;
+}
@@ -0,0 +1,193 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Cuts a snapshot down for one client. On maps larger than the screen,
+ * cull() drops what is outside the client's view (the leaderboard's
+ * players always stay).
+ *
+ * trim() fits a snapshot to a byte budget. The client's own tank and
+ * the buffs always go in; other tanks and bullets are added nearest
+ * first, and a tank that hasn't been sent for a while moves up the list
+ * so distant ones still get refreshed now and then. Tanks left out are
+ * listed in GameState.omittedPlayers.
+ *
+ * One instance per client. It runs on the game thread or in that
+ * client's task on the encode pool; a tick has one task per client and
+ * they are all joined before the next tick, so an instance is never used
+ * by two threads at once. Everything it keeps (view, send ticks, the
+ * scratch buffer) is its own; the snapshot it cuts from is only read.
+ */
+public class SnapshotPrioritizer {
+
+    // How fast staleness beats distance: each tick unsent counts this much
+    private static final double STALENESS_WEIGHT = 0.25;
+
+    // Entities this far outside the view still go out, so they don't pop in
+    private static final int CULL_MARGIN = 200;
+
+    private final int viewerId;
+    private final WireCodec.FrameBuffer scratch = new WireCodec.FrameBuffer(256);
+
+    // Players: tick each was last sent; a full snapshot covers everyone
+    private final Map<Integer, Long> lastSentTick = new HashMap<>();
+    private long lastFullTick = -1;
+
+    // Where the viewer's tank last was
+    private double viewX = ArenaMap.DEFAULT_WIDTH / 2.0, viewY = ArenaMap.DEFAULT_HEIGHT / 2.0;
+
+    private static final class Candidate {
+        final GameState.PlayerData player;  // null for a bullet
+        final GameState.BulletData bullet;
+        final double priority;               // lower goes first
+
+        Candidate(GameState.PlayerData player, GameState.BulletData bullet, double priority) {
+            this.player = player;
+            this.bullet = bullet;
+            this.priority = priority;
+        }
+    }
+
+    public SnapshotPrioritizer(int viewerId) {
+        this.viewerId = viewerId;
+    }
+
+    /**
+     * The full snapshot went out as is.
+     */
+    public void sentFull(long tick) {
+        lastFullTick = tick;
+    }
+
+    /**
+     * The part of 'full' this viewer can see, plus the players in
+     * 'alwaysSent' (the leaderboard).
+     */
+    public GameState cull(GameState full, Set<Integer> alwaysSent) {
+        updateView(full);
+        double halfW = ArenaMap.VIEW_WIDTH / 2.0 + CULL_MARGIN;
+        double halfH = ArenaMap.VIEW_HEIGHT / 2.0 + CULL_MARGIN;
+
+        GameState gs = new GameState();
+        gs.tick = full.tick;
+        for (GameState.PlayerData p : full.players) {
+            if (p.playerId == viewerId || alwaysSent.contains(p.playerId)
+                    || inView(p.x + p.width / 2.0, p.y + p.height / 2.0, halfW, halfH)) {
+                gs.players.add(p);
+            }
+        }
+        for (GameState.BulletData b : full.bullets) {
+            if (inView(b.x, b.y, halfW, halfH)) gs.bullets.add(b);
+        }
+        gs.buffs = new ArrayList<>();
+        if (full.buffs != null) {
+            for (GameState.BuffData b : full.buffs) {
+                if (inView(b.x, b.y, halfW, halfH)) gs.buffs.add(b);
+            }
+        }
+        return gs;
+    }
+
+    private boolean inView(double x, double y, double halfW, double halfH) {
+        return Math.abs(x - viewX) <= halfW && Math.abs(y - viewY) <= halfH;
+    }
+
+    private void updateView(GameState full) {
+        for (GameState.PlayerData p : full.players) {
+            if (p.playerId == viewerId) {
+                viewX = p.x + p.width / 2.0;
+                viewY = p.y + p.height / 2.0;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Build a version of 'full' whose encoding fits in about 'budget'
+     * bytes, prioritized for this viewer.
+     */
+    public GameState trim(GameState full, int budget) {
+        GameState gs = new GameState();
+        gs.tick = full.tick;
+        gs.buffs = full.buffs;
+
+        updateView(full);
+        int used = 8 + 3 * 5; // tick and the three list counts
+        if (full.buffs != null) used += full.buffs.size() * 16;
+        for (GameState.PlayerData p : full.players) {
+            if (p.playerId == viewerId) {
+                gs.players.add(p);
+                used += sizeOf(p);
+            }
+        }
+
+        List<Candidate> candidates = new ArrayList<>(full.players.size() + full.bullets.size());
+        for (GameState.PlayerData p : full.players) {
+            if (p.playerId == viewerId) continue;
+            double distance = Math.hypot(p.x + p.width / 2.0 - viewX, p.y + p.height / 2.0 - viewY);
+            long stale = full.tick - Math.max(lastFullTick, lastSentTick.getOrDefault(p.playerId, -1L));
+            candidates.add(new Candidate(p, null, distance / (1 + stale * STALENESS_WEIGHT)));
+        }
+        for (GameState.BulletData b : full.bullets) {
+            double distance = Math.hypot(b.x - viewX, b.y - viewY);
+            candidates.add(new Candidate(null, b, distance));
+        }
+        candidates.sort((a, b) -> Double.compare(a.priority, b.priority));
+
+        List<Integer> omitted = new ArrayList<>();
+        for (Candidate c : candidates) {
+            if (c.player != null) {
+                int size = sizeOf(c.player);
+                // Each left-out player costs a varint id
+                if (used + size <= budget) {
+                    gs.players.add(c.player);
+                    lastSentTick.put(c.player.playerId, full.tick);
+                    used += size;
+                } else {
+                    omitted.add(c.player.playerId);
+                    used += 2;
+                }
+            } else {
+                int size = sizeOf(c.bullet);
+                if (used + size <= budget) {
+                    gs.bullets.add(c.bullet);
+                    used += size;
+                }
+            }
+        }
+
+        if (!omitted.isEmpty()) {
+            gs.omittedPlayers = new int[omitted.size()];
+            for (int i = 0; i < omitted.size(); i++) gs.omittedPlayers[i] = omitted.get(i);
+        }
+        // Forget players that left
+        if (lastSentTick.size() > full.players.size()) {
+            lastSentTick.keySet().removeIf(id -> full.players.stream().noneMatch(p -> p.playerId == id));
+        }
+        return gs;
+    }
+
+    private int sizeOf(GameState.PlayerData p) {
+        scratch.reset();
+        try {
+            WireCodec.writePlayer(scratch.data, p);
+        } catch (IOException e) {
+            return 0; // can't happen writing to memory
+        }
+        return scratch.size();
+    }
+
+    private int sizeOf(GameState.BulletData b) {
+        scratch.reset();
+        try {
+            WireCodec.writeBullet(scratch.data, b);
+        } catch (IOException e) {
+            return 0;
+        }
+        return scratch.size();
+    }
+}
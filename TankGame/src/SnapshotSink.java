@@ -0,0 +1,13 @@
+/**
+ * Something that wants every tick's finished snapshot (recorders, relay
+ * feeds). offer() is called on the game thread and must not block.
+ */
+public interface SnapshotSink {
+
+    void offer(GameState state);
+
+    /**
+     * Called once when the game loop stops.
+     */
+    void close();
+}
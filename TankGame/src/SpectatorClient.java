@@ -0,0 +1,120 @@
+import javax.swing.*;
+import java.awt.*;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.Socket;
+
+/**
+ * Read-only viewer for a SpectatorRelay (or the server's relay feed).
+ * It never logs in and sends nothing; it just draws what it receives.
+ */
+public class SpectatorClient extends JFrame {
+    private JTextField hostField, portField;
+    private JLabel statusLabel;
+    private GamePanel gamePanel;
+
+    // --- Color Palette (similar to the ServerGUI) ---
+    private static final Color COLOR_BG_DARK   = new Color(0x41436A);
+    private static final Color COLOR_PURPLE    = new Color(0x984063);
+    private static final Color COLOR_HOT_PINK  = new Color(0xF64668);
+    private static final Color COLOR_PEACH     = new Color(0xFE9677);
+    private static final Color COLOR_WHITE     = Color.WHITE;
+
+    public static void main(String... args) {
+        new SpectatorClient().setVisible(true);
+    }
+
+    public SpectatorClient() {
+        super("Spectate");
+        setDefaultCloseOperation(EXIT_ON_CLOSE);
+        setSize(400, 220);
+        setLocationRelativeTo(null);
+
+        JPanel panel = new JPanel(new GridBagLayout());
+        panel.setBackground(COLOR_BG_DARK);
+        GridBagConstraints gbc = new GridBagConstraints();
+        gbc.insets = new Insets(5,5,5,5);
+
+        JLabel hostLabel = new JLabel("Relay host:");
+        styleLabel(hostLabel, COLOR_PEACH);
+        hostField = new JTextField("localhost", 15);
+
+        JLabel portLabel = new JLabel("Port:");
+        styleLabel(portLabel, COLOR_PEACH);
+        portField = new JTextField("12347", 6);
+
+        JButton watchButton = new JButton("Watch");
+        watchButton.setBackground(COLOR_PURPLE);
+        watchButton.setForeground(COLOR_WHITE);
+        watchButton.setFocusPainted(false);
+        watchButton.setFont(new Font("SansSerif", Font.BOLD, 14));
+        watchButton.addActionListener(e -> onWatch());
+
+        statusLabel = new JLabel("");
+        styleLabel(statusLabel, COLOR_HOT_PINK);
+
+        gbc.gridx=0; gbc.gridy=0; panel.add(hostLabel, gbc);
+        gbc.gridx=1; gbc.gridy=0; panel.add(hostField, gbc);
+
+        gbc.gridx=0; gbc.gridy=1; panel.add(portLabel, gbc);
+        gbc.gridx=1; gbc.gridy=1; panel.add(portField, gbc);
+
+        gbc.gridwidth=2;
+        gbc.gridx=0;
+        gbc.gridy=2;
+        panel.add(watchButton, gbc);
+
+        gbc.gridy=3;
+        panel.add(statusLabel, gbc);
+
+        add(panel);
+    }
+
+    private void styleLabel(JLabel label, Color color) {
+        label.setForeground(color);
+        label.setFont(new Font("SansSerif", Font.BOLD, 14));
+    }
+
+    private void onWatch() {
+        Socket socket;
+        try {
+            socket = new Socket(hostField.getText().trim(), Integer.parseInt(portField.getText().trim()));
+        } catch (IOException | NumberFormatException e) {
+            statusLabel.setText("Connection error. Check host/port.");
+            return;
+        }
+
+        // Swap the form for the game view
+        getContentPane().removeAll();
+        gamePanel = new GamePanel(null);
+        add(gamePanel, BorderLayout.CENTER);
+        setTitle("Tank Game - Spectating");
+        setExtendedState(JFrame.MAXIMIZED_BOTH);
+        revalidate();
+
+        new Thread(() -> listen(socket)).start();
+    }
+
+    private void listen(Socket socket) {
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(socket.getInputStream(), 1 << 16))) {
+            // The arena comes first, then a snapshot per frame
+            gamePanel.setMapData(WireCodec.readMapData(
+                    new DataInputStream(new ByteArrayInputStream(WireCodec.readFrame(in)))));
+            while (true) {
+                byte[] frame = WireCodec.readFrame(in);
+                GameState gs = WireCodec.readGameState(
+                        new DataInputStream(new ByteArrayInputStream(frame)));
+                gamePanel.setGameState(gs);
+            }
+        } catch (IOException e) {
+            SwingUtilities.invokeLater(() -> {
+                JOptionPane.showMessageDialog(this, "The relay stream ended.",
+                        "Connection Error", JOptionPane.ERROR_MESSAGE);
+                System.exit(0);
+            });
+        }
+    }
+}
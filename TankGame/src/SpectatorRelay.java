@@ -0,0 +1,122 @@
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayDeque;
+
+/**
+ * Stand-alone relay: subscribes to one upstream snapshot stream (the
+ * game server's relay feed, or another relay) and re-broadcasts it to
+ * many read-only viewers. Relays can be chained, so a tournament stream
+ * can fan out to thousands of viewers without touching the game server.
+ *
+ *   java SpectatorRelay <upstream host> <upstream port> <listen port> [delay ms]
+ *
+ * With a delay, frames are held back that long before viewers see them.
+ * The upstream's first frame (the arena's MapData) is passed on to each
+ * viewer before any snapshot.
+ */
+public class SpectatorRelay {
+
+    private static final long RECONNECT_DELAY_MS = 2000;
+
+    private final String upstreamHost;
+    private final int upstreamPort;
+    private final long delayNanos;
+    private final FrameFanout fanout = new FrameFanout();
+
+    // Frames waiting out the delay, oldest first
+    private final ArrayDeque<DelayedFrame> delayed = new ArrayDeque<>();
+
+    private static class DelayedFrame {
+        final long arrivalNanos;
+        final byte[] frame;
+
+        DelayedFrame(long arrivalNanos, byte[] frame) {
+            this.arrivalNanos = arrivalNanos;
+            this.frame = frame;
+        }
+    }
+
+    public SpectatorRelay(String upstreamHost, int upstreamPort, long delayMs) {
+        this.upstreamHost = upstreamHost;
+        this.upstreamPort = upstreamPort;
+        this.delayNanos = delayMs * 1_000_000L;
+    }
+
+    public void start(int listenPort) throws IOException {
+        fanout.listen(listenPort, "relay");
+        if (delayNanos > 0) {
+            Thread releaser = new Thread(this::releaseLoop, "relay-delay");
+            releaser.setDaemon(true);
+            releaser.start();
+        }
+        System.out.println("Relay listening on port " + listenPort + ", upstream "
+                + upstreamHost + ":" + upstreamPort + ", delay " + delayNanos / 1_000_000 + " ms");
+        upstreamLoop();
+    }
+
+    /**
+     * Read frames from upstream forever, reconnecting if it goes away.
+     */
+    private void upstreamLoop() {
+        while (true) {
+            try (Socket socket = new Socket(upstreamHost, upstreamPort)) {
+                System.out.println("Connected to upstream " + socket.getRemoteSocketAddress());
+                DataInputStream in = new DataInputStream(
+                        new BufferedInputStream(socket.getInputStream(), 1 << 16));
+                fanout.setHeader(WireCodec.readFrame(in));
+                while (true) {
+                    byte[] frame = WireCodec.readFrame(in);
+                    if (delayNanos == 0) {
+                        fanout.publish(frame);
+                    } else {
+                        synchronized (delayed) {
+                            delayed.addLast(new DelayedFrame(System.nanoTime(), frame));
+                            delayed.notifyAll();
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                System.out.println("Upstream lost (" + e.getMessage() + "), retrying...");
+            }
+            try {
+                Thread.sleep(RECONNECT_DELAY_MS);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Publishes delayed frames once they are old enough.
+     */
+    private void releaseLoop() {
+        try {
+            while (true) {
+                byte[] frame;
+                synchronized (delayed) {
+                    while (delayed.isEmpty()) delayed.wait();
+                    long due = delayed.peekFirst().arrivalNanos + delayNanos;
+                    long wait = due - System.nanoTime();
+                    if (wait > 0) {
+                        delayed.wait(wait / 1_000_000, (int) (wait % 1_000_000));
+                        continue;
+                    }
+                    frame = delayed.pollFirst().frame;
+                }
+                fanout.publish(frame);
+            }
+        } catch (InterruptedException ignored) {}
+    }
+
+    public static void main(String... args) throws IOException {
+        if (args.length < 3) {
+            System.out.println("Usage: java SpectatorRelay <upstream host> <upstream port> <listen port> [delay ms]");
+            return;
+        }
+        long delayMs = args.length > 3 ? Long.parseLong(args[3]) : 0;
+        new SpectatorRelay(args[0], Integer.parseInt(args[1]), delayMs)
+                .start(Integer.parseInt(args[2]));
+    }
+}
@@ -0,0 +1,158 @@
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+
+/**
+ * Client side of the UDP channel. Sends HELLO until the first snapshot
+ * arrives, then sends each command together with the last few unacked
+ * ones, and re-sends them on a short heartbeat so a lost packet is
+ * covered by the next one. Snapshots older than the newest one seen
+ * are discarded.
+ */
+public class UdpClientChannel {
+
+    private static final int HEARTBEAT_MS = 50;
+
+    private final DatagramSocket socket;
+    private final NetworkSimulator sender;
+    private final InetSocketAddress serverAddress;
+    private final int playerId;
+    private final long token;
+    private final GamePanel gamePanel;
+    private final ClientNetStats netStats;
+    private final SnapshotDecompressor decompressor = new SnapshotDecompressor(true);
+    private volatile boolean running = true;
+
+    // Newest snapshot seq received; older ones are dropped
+    private volatile int lastSnapshotSeq = 0;
+    private volatile boolean bound = false;
+
+    // Last INPUT_REDUNDANCY commands, encoded, indexed by seq % size
+    private final byte[][] recentInputs = new byte[UdpProtocol.INPUT_REDUNDANCY][];
+    private int nextInputSeq = 1;
+    private volatile int ackedInputSeq = 0;
+
+    public UdpClientChannel(InetAddress host, int port, int playerId, long token,
+                            GamePanel gamePanel, ClientNetStats netStats) throws IOException {
+        this.socket = new DatagramSocket();
+        this.sender = new NetworkSimulator(socket);
+        this.serverAddress = new InetSocketAddress(host, port);
+        this.playerId = playerId;
+        this.token = token;
+        this.gamePanel = gamePanel;
+        this.netStats = netStats;
+
+        Thread receiver = new Thread(this::receiveLoop, "udp-receive");
+        receiver.setDaemon(true);
+        receiver.start();
+        Thread heartbeat = new Thread(this::heartbeatLoop, "udp-heartbeat");
+        heartbeat.setDaemon(true);
+        heartbeat.start();
+    }
+
+    /**
+     * Queue 'cmd' (copied now, so the caller may keep mutating it) and send.
+     */
+    public synchronized void sendCommand(Command cmd) {
+        cmd.seq = nextInputSeq++;
+        WireCodec.FrameBuffer buf = new WireCodec.FrameBuffer(32);
+        try {
+            WireCodec.writeCommand(buf.data, cmd);
+        } catch (IOException e) {
+            return; // can't happen writing to memory
+        }
+        recentInputs[cmd.seq % recentInputs.length] = buf.toByteArray();
+        sendInputs();
+    }
+
+    private synchronized void sendInputs() {
+        int newest = nextInputSeq - 1;
+        int oldest = Math.max(ackedInputSeq + 1, newest - recentInputs.length + 1);
+        if (oldest < 1) oldest = 1;
+        int count = Math.max(0, newest - oldest + 1);
+
+        int size = 1 + 4 + 1;
+        for (int seq = oldest; seq <= newest; seq++) size += recentInputs[seq % recentInputs.length].length;
+        ByteBuffer data = ByteBuffer.allocate(size);
+        data.put(UdpProtocol.INPUT).putInt(playerId).put((byte) count);
+        for (int seq = oldest; seq <= newest; seq++) data.put(recentInputs[seq % recentInputs.length]);
+        send(data.array());
+    }
+
+    private void sendHello() {
+        ByteBuffer data = ByteBuffer.allocate(1 + 4 + 8);
+        data.put(UdpProtocol.HELLO).putInt(playerId).putLong(token);
+        send(data.array());
+    }
+
+    private void send(byte[] data) {
+        try {
+            sender.send(new DatagramPacket(data, data.length, serverAddress));
+        } catch (IOException e) {
+            System.out.println("Error sending UDP packet to server.");
+        }
+    }
+
+    private void heartbeatLoop() {
+        while (running) {
+            if (!bound) {
+                sendHello();
+            } else if (ackedInputSeq < nextInputSeq - 1) {
+                sendInputs(); // something not yet acknowledged
+            }
+            try {
+                Thread.sleep(HEARTBEAT_MS);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private void receiveLoop() {
+        byte[] buffer = new byte[65536];
+        DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+        while (running) {
+            try {
+                packet.setLength(buffer.length);
+                socket.receive(packet);
+                DataInputStream in = new DataInputStream(
+                        new ByteArrayInputStream(packet.getData(), 0, packet.getLength()));
+                byte type = in.readByte();
+                if (type != UdpProtocol.SNAPSHOT && type != UdpProtocol.SNAPSHOT_DEFLATED) continue;
+                int seq = in.readInt();
+                int inputAck = in.readInt();
+                bound = true;
+                if (inputAck > ackedInputSeq) ackedInputSeq = inputAck;
+                if (seq <= lastSnapshotSeq) {
+                    netStats.onDropped(1); // late or duplicate
+                    continue;
+                }
+                if (lastSnapshotSeq > 0 && seq > lastSnapshotSeq + 1) {
+                    netStats.onDropped(seq - lastSnapshotSeq - 1);
+                }
+                lastSnapshotSeq = seq;
+                netStats.onSnapshot(packet.getLength());
+                if (type == UdpProtocol.SNAPSHOT_DEFLATED) {
+                    int header = UdpProtocol.SNAPSHOT_HEADER;
+                    decompressor.decompress(packet.getData(), header, packet.getLength() - header);
+                    in = new DataInputStream(new ByteArrayInputStream(
+                            decompressor.buffer(), 0, decompressor.length()));
+                }
+                gamePanel.setGameState(WireCodec.readGameState(in));
+            } catch (IOException e) {
+                if (running) System.out.println("UDP receive failed: " + e.getMessage());
+            }
+        }
+    }
+
+    public void close() {
+        running = false;
+        socket.close();
+        sender.close();
+    }
+}
@@ -0,0 +1,31 @@
+/**
+ * Datagram layouts for the UDP snapshot/input channel. Login and other
+ * reliable messages stay on the TCP connection.
+ *
+ * HELLO    client -> server: type, playerId (int), token (long)
+ * SNAPSHOT server -> client: type, seq (int), newest input seq received (int), GameState
+ *                            (type SNAPSHOT_DEFLATED: the GameState is deflated on its own)
+ * INPUT    client -> server: type, playerId (int), count (byte),
+ *                            count x Command (oldest first)
+ */
+public final class UdpProtocol {
+
+    private UdpProtocol() {}
+
+    public static final byte HELLO = 1;
+    public static final byte SNAPSHOT = 2;
+    public static final byte INPUT = 3;
+    public static final byte SNAPSHOT_DEFLATED = 4;
+
+    public static final int SNAPSHOT_HEADER = 1 + 4 + 4;
+
+    // Largest datagram we send: fits the path MTU nearly everywhere, so
+    // it is never IP-fragmented (a lost fragment loses the whole datagram)
+    public static final int MAX_DATAGRAM = 1200;
+
+    // Snapshots bigger than this are deflated to fit, or go over TCP
+    public static final int MAX_PAYLOAD = MAX_DATAGRAM - SNAPSHOT_HEADER;
+
+    // How many of the latest commands each INPUT packet repeats
+    public static final int INPUT_REDUNDANCY = 3;
+}
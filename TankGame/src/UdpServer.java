@@ -0,0 +1,129 @@
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Server side of the UDP channel. After a TCP login the client sends a
+ * HELLO with the token it was given; from then on its snapshots go out
+ * as sequenced datagrams and its commands come in the same way, so one
+ * lost packet no longer stalls everything behind it.
+ */
+public class UdpServer {
+
+    private final GameServer server;
+    private final DatagramSocket socket;
+    private final NetworkSimulator sender;
+    private final Map<SocketAddress, ClientHandler> byAddress = new ConcurrentHashMap<>();
+    private volatile boolean running = true;
+
+    public UdpServer(int port, GameServer server) throws IOException {
+        this.server = server;
+        this.socket = new DatagramSocket(port);
+        this.sender = new NetworkSimulator(socket);
+        Thread t = new Thread(this::receiveLoop, "udp-receive");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    public int getPort() {
+        return socket.getLocalPort();
+    }
+
+    /**
+     * Send one encoded snapshot to a client bound to UDP. One too big for
+     * a datagram is deflated on its own if the client supports it and
+     * budget allows. Returns false, sending nothing, if it still doesn't
+     * fit; the caller sends it over TCP instead.
+     */
+    public boolean sendSnapshot(ClientHandler ch, byte[] payload, int length, CompressionBudget budget) {
+        byte type = UdpProtocol.SNAPSHOT;
+        if (length > UdpProtocol.MAX_PAYLOAD) {
+            SnapshotCompressor compressor = ch.getUdpCompressor();
+            if (compressor == null || !budget.available()) return false;
+            long start = System.nanoTime();
+            payload = compressor.compress(payload, length);
+            length = payload.length;
+            type = UdpProtocol.SNAPSHOT_DEFLATED;
+            budget.charge(System.nanoTime() - start);
+            if (length > UdpProtocol.MAX_PAYLOAD) return false;
+        }
+
+        byte[] data = new byte[UdpProtocol.SNAPSHOT_HEADER + length];
+        ByteBuffer.wrap(data)
+                .put(type)
+                .putInt(ch.nextSnapshotSeq())
+                .putInt(ch.getLastInputSeq())
+                .put(payload, 0, length);
+        try {
+            sender.send(new DatagramPacket(data, data.length, ch.getUdpAddress()));
+            ch.getCongestion().onDelivered(data.length);
+        } catch (IOException e) {
+            System.out.println("Failed to send UDP snapshot to player " + ch.getPlayerId());
+        }
+        return true;
+    }
+
+    public void unbind(ClientHandler ch) {
+        if (ch.getUdpAddress() != null) byAddress.remove(ch.getUdpAddress(), ch);
+    }
+
+    private void receiveLoop() {
+        byte[] buffer = new byte[2048];
+        DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+        while (running) {
+            try {
+                packet.setLength(buffer.length);
+                socket.receive(packet);
+                handlePacket(packet);
+            } catch (IOException e) {
+                if (running) System.out.println("UDP receive failed: " + e.getMessage());
+            }
+        }
+    }
+
+    private void handlePacket(DatagramPacket packet) throws IOException {
+        DataInputStream in = new DataInputStream(
+                new ByteArrayInputStream(packet.getData(), packet.getOffset(), packet.getLength()));
+        byte type = in.readByte();
+        int playerId = in.readInt();
+        ClientHandler ch = server.getClient(playerId);
+        if (ch == null) return;
+
+        if (type == UdpProtocol.HELLO) {
+            long token = in.readLong();
+            // 0 = no token handed out (not logged in yet, or lockstep)
+            if (token == 0 || token != ch.getUdpToken()) return; // not who it claims to be
+            SocketAddress address = packet.getSocketAddress();
+            if (!address.equals(ch.getUdpAddress())) {
+                unbind(ch);
+                ch.setUdpAddress(address);
+                byAddress.put(address, ch);
+                System.out.println("Player " + playerId + " switched to UDP from " + address);
+            }
+        } else if (type == UdpProtocol.INPUT) {
+            // Only accept inputs from the address that said HELLO
+            if (byAddress.get(packet.getSocketAddress()) != ch) return;
+            int count = in.readUnsignedByte();
+            for (int i = 0; i < count; i++) {
+                Command cmd = WireCodec.readCommand(in);
+                // Redundant copies and late (reordered) packets are dropped here
+                if (cmd.seq > ch.getLastInputSeq()) {
+                    ch.setLastInputSeq(cmd.seq);
+                    server.receiveCommand(playerId, cmd);
+                }
+            }
+        }
+    }
+
+    public void close() {
+        running = false;
+        socket.close();
+        sender.close();
+    }
+}
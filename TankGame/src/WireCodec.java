@@ -0,0 +1,327 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Compact binary encoding for the messages we write to disk
+ * (and later over the wire). Kept separate from Java serialization
+ * so the format stays small and stable.
+ */
+public final class WireCodec {
+
+    private WireCodec() {}
+
+    // Command flag bits
+    private static final int UP = 1, DOWN = 2, LEFT = 4, RIGHT = 8, SHOOT = 16;
+
+    public static void writeCommand(DataOutput out, Command cmd) throws IOException {
+        int flags = 0;
+        if (cmd.moveUp)    flags |= UP;
+        if (cmd.moveDown)  flags |= DOWN;
+        if (cmd.moveLeft)  flags |= LEFT;
+        if (cmd.moveRight) flags |= RIGHT;
+        if (cmd.shooting)  flags |= SHOOT;
+        out.writeByte(flags);
+        out.writeDouble(cmd.turretAngle);
+        writeVarLong(out, cmd.ackTick);
+        writeVarInt(out, cmd.seq);
+        writeVarLong(out, cmd.sentMillis);
+    }
+
+    public static Command readCommand(DataInput in) throws IOException {
+        Command cmd = new Command();
+        int flags = in.readUnsignedByte();
+        cmd.moveUp    = (flags & UP) != 0;
+        cmd.moveDown  = (flags & DOWN) != 0;
+        cmd.moveLeft  = (flags & LEFT) != 0;
+        cmd.moveRight = (flags & RIGHT) != 0;
+        cmd.shooting  = (flags & SHOOT) != 0;
+        cmd.turretAngle = in.readDouble();
+        cmd.ackTick = readVarLong(in);
+        cmd.seq = readVarInt(in);
+        cmd.sentMillis = readVarLong(in);
+        return cmd;
+    }
+
+    /**
+     * Snapshot; every one is self-contained so any of them can be shown
+     * without the ones before it. A trimmed snapshot (see
+     * SnapshotPrioritizer) lists the players it left out, and the
+     * client keeps showing their last known state.
+     */
+    public static void writeGameState(DataOutput out, GameState gs) throws IOException {
+        out.writeLong(gs.tick);
+
+        writeVarInt(out, gs.players.size());
+        for (GameState.PlayerData p : gs.players) {
+            writePlayer(out, p);
+        }
+        int omitted = gs.omittedPlayers == null ? 0 : gs.omittedPlayers.length;
+        writeVarInt(out, omitted);
+        for (int i = 0; i < omitted; i++) {
+            writeVarInt(out, gs.omittedPlayers[i]);
+        }
+
+        writeVarInt(out, gs.bullets.size());
+        for (GameState.BulletData b : gs.bullets) {
+            writeBullet(out, b);
+        }
+
+        int buffCount = gs.buffs == null ? 0 : gs.buffs.size();
+        writeVarInt(out, buffCount);
+        for (int i = 0; i < buffCount; i++) {
+            GameState.BuffData b = gs.buffs.get(i);
+            writeSignedVarInt(out, b.x);
+            writeSignedVarInt(out, b.y);
+            writeVarInt(out, b.diameter);
+            out.writeUTF(b.color);
+            out.writeBoolean(b.visible);
+        }
+    }
+
+    public static GameState readGameState(DataInput in) throws IOException {
+        GameState gs = new GameState();
+        gs.tick = in.readLong();
+
+        int playerCount = readVarInt(in);
+        for (int i = 0; i < playerCount; i++) {
+            GameState.PlayerData p = new GameState.PlayerData();
+            p.playerId = readVarInt(in);
+            p.username = in.readUTF();
+            p.score = readVarInt(in);
+            p.x = readSignedVarInt(in);
+            p.y = readSignedVarInt(in);
+            p.width = readVarInt(in);
+            p.height = readVarInt(in);
+            p.tubeWidth = readVarInt(in);
+            p.tubeHeight = readVarInt(in);
+            p.turretAngle = in.readFloat();
+            p.health = readVarInt(in);
+            gs.players.add(p);
+        }
+        int omitted = readVarInt(in);
+        if (omitted > 0) {
+            gs.omittedPlayers = new int[omitted];
+            for (int i = 0; i < omitted; i++) {
+                gs.omittedPlayers[i] = readVarInt(in);
+            }
+        }
+
+        int bulletCount = readVarInt(in);
+        for (int i = 0; i < bulletCount; i++) {
+            GameState.BulletData b = new GameState.BulletData();
+            b.x = readSignedVarInt(in);
+            b.y = readSignedVarInt(in);
+            b.diameter = readVarInt(in);
+            gs.bullets.add(b);
+        }
+
+        int buffCount = readVarInt(in);
+        gs.buffs = new ArrayList<>(buffCount);
+        for (int i = 0; i < buffCount; i++) {
+            GameState.BuffData b = new GameState.BuffData();
+            b.x = readSignedVarInt(in);
+            b.y = readSignedVarInt(in);
+            b.diameter = readVarInt(in);
+            b.color = in.readUTF();
+            b.visible = in.readBoolean();
+            gs.buffs.add(b);
+        }
+        return gs;
+    }
+
+    /**
+     * Arena geometry; the first frame of a relay feed and part of a
+     * match recording's header, so viewers draw the right arena.
+     */
+    public static void writeMapData(DataOutput out, MapData map) throws IOException {
+        writeVarInt(out, map.width);
+        writeVarInt(out, map.height);
+        writeVarInt(out, map.walls.length / 4);
+        for (int v : map.walls) {
+            writeSignedVarInt(out, v);
+        }
+    }
+
+    public static MapData readMapData(DataInput in) throws IOException {
+        MapData map = new MapData();
+        map.width = readVarInt(in);
+        map.height = readVarInt(in);
+        int walls = readVarInt(in);
+        if (walls < 0 || walls > MAX_FRAME / 4) throw new IOException("Bad wall count " + walls);
+        map.walls = new int[walls * 4];
+        for (int i = 0; i < map.walls.length; i++) {
+            map.walls[i] = readSignedVarInt(in);
+        }
+        return map;
+    }
+
+    /**
+     * writeMapData into a byte array of its own.
+     */
+    public static byte[] encodeMapData(MapData map) {
+        FrameBuffer buf = new FrameBuffer(256);
+        try {
+            writeMapData(buf.data, map);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return buf.toByteArray();
+    }
+
+    public static void writePlayer(DataOutput out, GameState.PlayerData p) throws IOException {
+        writeVarInt(out, p.playerId);
+        out.writeUTF(p.username == null ? "" : p.username);
+        writeVarInt(out, p.score);
+        writeSignedVarInt(out, p.x);
+        writeSignedVarInt(out, p.y);
+        writeVarInt(out, p.width);
+        writeVarInt(out, p.height);
+        writeVarInt(out, p.tubeWidth);
+        writeVarInt(out, p.tubeHeight);
+        out.writeFloat((float) p.turretAngle);
+        writeVarInt(out, p.health);
+    }
+
+    public static void writeBullet(DataOutput out, GameState.BulletData b) throws IOException {
+        writeSignedVarInt(out, b.x);
+        writeSignedVarInt(out, b.y);
+        writeVarInt(out, b.diameter);
+    }
+
+    /**
+     * Zigzag varint for values that may be negative (positions).
+     */
+    public static void writeSignedVarInt(DataOutput out, int value) throws IOException {
+        writeVarInt(out, (value << 1) ^ (value >> 31));
+    }
+
+    public static int readSignedVarInt(DataInput in) throws IOException {
+        int v = readVarInt(in);
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    private static byte[] presetDictionary;
+
+    /**
+     * Deflate dictionary shared by server and client: the encoding of a
+     * typical GameState (default usernames and tank sizes, every buff
+     * color), so the first compressed frame already finds matches.
+     * Both sides build it from this code, so it must stay deterministic.
+     */
+    public static synchronized byte[] presetDictionary() {
+        if (presetDictionary == null) {
+            GameState gs = new GameState();
+            for (int i = 1; i <= 8; i++) {
+                GameState.PlayerData p = new GameState.PlayerData();
+                p.playerId = i;
+                p.username = "player";
+                p.x = 100 * i;
+                p.y = 100;
+                p.width = p.height = 50;
+                p.tubeWidth = 40;
+                p.tubeHeight = 15;
+                p.health = 100;
+                gs.players.add(p);
+            }
+            gs.buffs = new ArrayList<>();
+            for (GameState.BuffData.buffType type : GameState.BuffData.buffType.values()) {
+                GameState.BuffData b = new GameState.BuffData();
+                b.diameter = 40;
+                b.color = BuffTable.get(type).colorHex;
+                b.visible = true;
+                gs.buffs.add(b);
+            }
+            FrameBuffer buf = new FrameBuffer(1024);
+            try {
+                writeGameState(buf.data, gs);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            presetDictionary = buf.toByteArray();
+        }
+        return presetDictionary;
+    }
+
+    // Upper bound on a single framed message, to reject garbage lengths
+    public static final int MAX_FRAME = 16 << 20;
+
+    /**
+     * Length-prefixed frame, as used on the spectator relay links.
+     */
+    public static void writeFrame(DataOutputStream out, byte[] frame) throws IOException {
+        out.writeInt(frame.length);
+        out.write(frame);
+        out.flush();
+    }
+
+    public static byte[] readFrame(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > MAX_FRAME) throw new IOException("Bad frame length " + length);
+        byte[] frame = new byte[length];
+        in.readFully(frame);
+        return frame;
+    }
+
+    /**
+     * Reusable encode buffer; array() exposes the bytes without copying.
+     */
+    public static final class FrameBuffer extends ByteArrayOutputStream {
+        public final DataOutputStream data = new DataOutputStream(this);
+
+        public FrameBuffer(int initialSize) {
+            super(initialSize);
+        }
+
+        public byte[] array() {
+            return buf;
+        }
+    }
+
+    /**
+     * Unsigned LEB128 varint, 1 byte for values below 128.
+     */
+    public static void writeVarInt(DataOutput out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    public static void writeVarLong(DataOutput out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    public static long readVarLong(DataInput in) throws IOException {
+        long value = 0;
+        int shift = 0;
+        while (true) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+            shift += 7;
+            if (shift > 63) throw new IOException("Malformed varint");
+        }
+    }
+
+    public static int readVarInt(DataInput in) throws IOException {
+        int value = 0;
+        int shift = 0;
+        while (true) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+            shift += 7;
+            if (shift > 28) throw new IOException("Malformed varint");
+        }
+    }
+}